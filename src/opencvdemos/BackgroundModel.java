@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds what moved into a static scene, by subtracting a running average of
+ * the frames, instead of by color.
+ *
+ * A pixel is foreground when the sum of its absolute B, G and R differences
+ * from the background is over the threshold. The background then follows
+ * the frame where it is not foreground, at the learning rate, so slow
+ * lighting changes are absorbed while objects stay out of it. If most of the
+ * frame is foreground at once, e.g. the camera moved or a light was switched
+ * on, the whole background is updated instead, so it recovers.
+ *
+ * Every step is a fixed number of operations per pixel, and the buffers are
+ * allocated on the first frame and reused for as long as the size does not
+ * change. Feed it frames downscaled by a pyramid level or two; the model is
+ * of floats, four times the frame size.
+ *
+ * Not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class BackgroundModel {
+
+    // Share of foreground pixels beyond which the whole background is updated
+    private static final double RELEARN_RATIO = 0.5;
+
+    private final double learningRate;
+    private final Scalar threshold;
+
+    // Running average of the frames, and per frame scratch buffers, created
+    // on the first frame
+    private Mat background;
+    private Mat floatFrame;
+    private Mat difference;
+    private Mat distance;
+    private Mat backgroundMask;
+    // Sums the three channels of the difference
+    private Mat channelSum;
+
+    /**
+     * A model with the defaults of the demo: learning rate 0.02 and threshold
+     * 45.
+     */
+    public BackgroundModel() {
+        this(0.02, 45);
+    }
+
+    /**
+     * @param learningRate weight of each frame in the background, from 0 to 1
+     * @param threshold sum of absolute B, G and R differences over which a
+     * pixel is foreground
+     */
+    public BackgroundModel(double learningRate, double threshold) {
+        if (learningRate <= 0 || learningRate > 1 || threshold < 0) {
+            throw new IllegalArgumentException("Invalid background model settings: " + learningRate + ", " + threshold);
+        }
+        this.learningRate = learningRate;
+        this.threshold = new Scalar(threshold);
+    }
+
+    /**
+     * Computes the foreground mask of a frame and updates the background.
+     *
+     * @param frame a BGR frame, 8 bits per channel
+     * @param mask the output, 255 for the foreground, reallocated if needed
+     */
+    public void apply(Mat frame, Mat mask) {
+        if (frame.type() != CvType.CV_8UC3) {
+            throw new IllegalArgumentException("Expected a BGR frame: " + CvType.typeToString(frame.type()));
+        }
+        if (this.background == null) {
+            this.background = new Mat();
+            this.floatFrame = new Mat();
+            this.difference = new Mat();
+            this.distance = new Mat();
+            this.backgroundMask = new Mat();
+            this.channelSum = new Mat(1, 3, CvType.CV_32FC1, new Scalar(1));
+        }
+        frame.convertTo(this.floatFrame, CvType.CV_32F);
+        if (this.background.cols() != frame.cols() || this.background.rows() != frame.rows()) {
+            // First frame, or a new size: it is all background
+            this.floatFrame.copyTo(this.background);
+        }
+
+        // Foreground where the frame is far from the background
+        Core.absdiff(this.floatFrame, this.background, this.difference);
+        Core.transform(this.difference, this.distance, this.channelSum);
+        Core.compare(this.distance, this.threshold, mask, Core.CMP_GT);
+
+        // Learn from the background only, unless most of it changed
+        if (Core.countNonZero(mask) > RELEARN_RATIO * frame.total()) {
+            Imgproc.accumulateWeighted(frame, this.background, this.learningRate);
+        }
+        else {
+            Core.bitwise_not(mask, this.backgroundMask);
+            Imgproc.accumulateWeighted(frame, this.background, this.learningRate, this.backgroundMask);
+        }
+    }
+
+    /**
+     * Forgets the background; the next frame starts a new one.
+     */
+    public void reset() {
+        if (this.background != null) {
+            this.background.release();
+        }
+    }
+
+    /**
+     * Releases the native memory of the model.
+     */
+    public void release() {
+        if (this.background != null) {
+            this.background.release();
+            this.floatFrame.release();
+            this.difference.release();
+            this.distance.release();
+            this.backgroundMask.release();
+            this.channelSum.release();
+            this.background = null;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.List;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Detection stages of {@link BallGame}: HSV mask, morphology and the bounding
+ * rectangles of the objects found, without any UI.
+ *
+ * The mask is looked up from the BGR colors by a {@link HsvLookupTable},
+ * so a hue start above the hue stop selects a range that wraps around, or,
+ * in background mode, is what differs from a {@link BackgroundModel} of the
+ * scene.
+ *
+ * The mask can be computed on a downscaled copy of the frame (an image
+ * pyramid level), with the objects mapped back to frame coordinates and
+ * optionally re-measured at full resolution in a small window around each.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class BallDetector {
+
+    /**
+     * How the mask of the objects is computed.
+     */
+    public enum Mode {
+        // Pixels in the HSV range
+        COLOR,
+        // Pixels that differ from the learned background
+        BACKGROUND
+    }
+
+    // HSV range of the objects to track
+    // Remember: H ranges 0-180, S and V range 0-255
+    private Scalar minValues = new Scalar(20, 60, 50);
+    private Scalar maxValues = new Scalar(50, 200, 255);
+    // The same range as a BGR table, rebuilt when the range changes
+    private final HsvLookupTable colors = new HsvLookupTable();
+    private Mode mode = Mode.COLOR;
+    // Background of the scene at the detection scale, for Mode.BACKGROUND
+    private final BackgroundModel background = new BackgroundModel();
+
+    // Clean-up of the mask, kernels built on the first frame
+    private MorphologyStage morphology = MorphologyStage.parse(MorphologyStage.BALL_DEFAULT);
+    // The same chain at the detection scale
+    private MorphologyStage scaledMorphology = this.morphology;
+
+    // Pyramid levels below full resolution the mask is computed at
+    private int levels;
+    // Re-measure each object at full resolution
+    private boolean refine;
+    // Last segmented frame, for the refinement
+    private Mat source;
+    // Refinement buffers, sized by each window and created on first use
+    private Mat refineBlurred;
+    private Mat refineMask;
+    private MatOfPoint refinePoints;
+
+    // Outputs of the last frame, valid until the pool is recycled
+    private Mat mask;
+    private Mat morphOutput;
+    // Contours of the last frame, reused
+    private final ContourAnalysis contours = new ContourAnalysis();
+    // Optional stage timers
+    private PipelineMetrics metrics;
+
+    public BallDetector() {
+        setHsvRange(this.minValues.val[0], this.minValues.val[1], this.minValues.val[2],
+                this.maxValues.val[0], this.maxValues.val[1], this.maxValues.val[2]);
+    }
+
+    /**
+     * Sets the HSV range of the objects to track. A hue start above the hue
+     * stop wraps around, e.g. 170-10 for reds.
+     */
+    public void setHsvRange(double hueStart, double saturationStart, double valueStart,
+            double hueStop, double saturationStop, double valueStop) {
+        this.minValues = new Scalar(hueStart, saturationStart, valueStart);
+        this.maxValues = new Scalar(hueStop, saturationStop, valueStop);
+        this.colors.setRange((int) hueStart, (int) saturationStart, (int) valueStart,
+                (int) hueStop, (int) saturationStop, (int) valueStop);
+    }
+
+    /**
+     * @param mode how the mask is computed, by default {@link Mode#COLOR}
+     */
+    public void setMode(Mode mode) {
+        if (mode != this.mode) {
+            this.background.reset();
+        }
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * Times each stage of the following frames.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the operations applied to the mask, by default
+     * {@link MorphologyStage#BALL_DEFAULT}.
+     */
+    public void setMorphology(MorphologyStage morphology) {
+        this.morphology = morphology;
+        setScale(this.levels);
+    }
+
+    /**
+     * Sets the resolution of the detection.
+     *
+     * @param levels 0 for full resolution, 1 for half, 2 for quarter...
+     */
+    public void setScale(int levels) {
+        if (levels < 0 || levels > 4) {
+            throw new IllegalArgumentException("Invalid pyramid level: " + levels);
+        }
+        if (this.scaledMorphology != this.morphology) {
+            this.scaledMorphology.release();
+        }
+        this.levels = levels;
+        this.scaledMorphology = levels == 0 ? this.morphology : this.morphology.scaled(1 << levels);
+    }
+
+    /**
+     * @param refine true to re-measure the objects found at a lower
+     * resolution on the full resolution frame, in color mode only
+     */
+    public void setRefine(boolean refine) {
+        this.refine = refine;
+    }
+
+    public Scalar getMinValues() {
+        return this.minValues;
+    }
+
+    public Scalar getMaxValues() {
+        return this.maxValues;
+    }
+
+    /**
+     * Finds the objects within the HSV range.
+     *
+     * @param frame a BGR frame
+     * @param pool pool for the intermediate Mats, recycled by the caller
+     * @return the bounding rectangle of each object found
+     */
+    public List<Rect> detect(Mat frame, MatPool pool) {
+        segment(frame, pool);
+        return findObjects().getBoundingRects();
+    }
+
+    /**
+     * Thresholds the frame and cleans the mask up; see {@link #getMask()} and
+     * {@link #getMorphOutput()}.
+     *
+     * @param frame a BGR frame
+     * @param pool pool for the intermediate Mats, recycled by the caller
+     */
+    public void segment(Mat frame, MatPool pool) {
+        this.source = frame;
+        long t = System.nanoTime();
+
+        // Halve the size once per pyramid level
+        Mat input = frame;
+        for (int i = 0; i < this.levels; i++) {
+            Mat smaller = pool.acquire((input.rows() + 1) / 2, (input.cols() + 1) / 2, input.type());
+            Imgproc.pyrDown(input, smaller, smaller.size());
+            input = smaller;
+        }
+        if (this.levels > 0) {
+            t = mark(PipelineMetrics.Stage.DOWNSCALE, t);
+        }
+
+        // Init
+        this.mask = pool.acquire(input.rows(), input.cols(), CvType.CV_8UC1);
+        this.morphOutput = pool.acquire(input.rows(), input.cols(), CvType.CV_8UC1);
+
+        // Remove some noise, with a kernel shrunk to the scale; pyrDown
+        // already smooths, so small scales need no more
+        int blurSize = 7 >> this.levels;
+        Mat blurredImage = input;
+        if (blurSize > 1) {
+            blurredImage = pool.acquire(input.rows(), input.cols(), input.type());
+            Imgproc.blur(input, blurredImage, new Size(blurSize, blurSize));
+        }
+        t = mark(PipelineMetrics.Stage.BLUR, t);
+
+        if (this.mode == Mode.BACKGROUND) {
+            // Select what is not part of the scene
+            this.background.apply(blurredImage, this.mask);
+        }
+        else {
+            // Threshold by HSV to select object, straight from BGR
+            this.colors.apply(blurredImage, this.mask);
+        }
+        t = mark(PipelineMetrics.Stage.THRESHOLD, t);
+
+        // Morphological operators
+        // Apply the configured morphology chain, by default a single dilate
+        this.scaledMorphology.apply(this.mask, this.morphOutput);
+        mark(PipelineMetrics.Stage.MORPHOLOGY, t);
+    }
+
+    /**
+     * Finds the contours of the last segmented frame in a single pass. The
+     * search works in place, so the morphology output is not usable after.
+     *
+     * @return the contours and their bounding rectangles, valid until the
+     * next call
+     */
+    public ContourAnalysis findObjects() {
+        return findObjects(0, 0);
+    }
+
+    /**
+     * Finds the contours of the last segmented frame, when it was a region of
+     * a larger frame, in the coordinates of that larger frame.
+     *
+     * @param offsetX x of the region in the frame
+     * @param offsetY y of the region in the frame
+     * @return the contours and their bounding rectangles, valid until the
+     * next call
+     */
+    public ContourAnalysis findObjects(int offsetX, int offsetY) {
+        long t = System.nanoTime();
+        this.contours.analyze(this.morphOutput, offsetX, offsetY, 1 << this.levels);
+        if (this.refine && this.levels > 0 && this.mode == Mode.COLOR) {
+            refine(offsetX, offsetY);
+        }
+        mark(PipelineMetrics.Stage.CONTOURS, t);
+        return this.contours;
+    }
+
+    // Replaces the coarse box and centroid of each object with those of the
+    // full resolution mask in a window around it. Refined boxes hug the mask
+    // pixels, without the growth of the morphology.
+    private void refine(int offsetX, int offsetY) {
+        int scale = 1 << this.levels;
+        if (this.refinePoints == null) {
+            this.refineBlurred = new Mat();
+            this.refineMask = new Mat();
+            this.refinePoints = new MatOfPoint();
+        }
+        for (int i = 0; i < this.contours.getCount(); i++) {
+            // Window in source coordinates, one downscaled pixel larger
+            int x0 = Math.max(0, this.contours.getRectX(i) - offsetX - scale);
+            int y0 = Math.max(0, this.contours.getRectY(i) - offsetY - scale);
+            int x1 = Math.min(this.source.cols(), this.contours.getRectX(i) - offsetX + this.contours.getRectWidth(i) + scale);
+            int y1 = Math.min(this.source.rows(), this.contours.getRectY(i) - offsetY + this.contours.getRectHeight(i) + scale);
+            if (x1 <= x0 || y1 <= y0) {
+                continue;
+            }
+            Mat window = this.source.submat(y0, y1, x0, x1);
+            Imgproc.blur(window, this.refineBlurred, new Size(7, 7));
+            this.colors.apply(this.refineBlurred, this.refineMask);
+            window.release();
+
+            Core.findNonZero(this.refineMask, this.refinePoints);
+            if (!this.refinePoints.empty()) {
+                Rect r = Imgproc.boundingRect(this.refinePoints);
+                Scalar mean = Core.mean(this.refinePoints);
+                this.contours.refine(i, r.x + x0 + offsetX, r.y + y0 + offsetY, r.width, r.height,
+                        mean.val[0] + x0 + offsetX, mean.val[1] + y0 + offsetY);
+            }
+        }
+    }
+
+    /**
+     * Releases the native memory of the last contours and the kernels. The
+     * detector can still be used.
+     */
+    public void release() {
+        this.contours.release();
+        this.background.release();
+        this.morphology.release();
+        this.scaledMorphology.release();
+        if (this.refinePoints != null) {
+            this.refineBlurred.release();
+            this.refineMask.release();
+            this.refinePoints.release();
+        }
+    }
+
+    private long mark(PipelineMetrics.Stage stage, long start) {
+        return this.metrics == null ? start : this.metrics.record(stage, start);
+    }
+
+    /**
+     * @return the HSV mask of the last frame
+     */
+    public Mat getMask() {
+        return this.mask;
+    }
+
+    /**
+     * @return the mask of the last frame after morphology
+     */
+    public Mat getMorphOutput() {
+        return this.morphOutput;
+    }
+}
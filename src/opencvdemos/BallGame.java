@@ -21,26 +21,18 @@
  */
 package opencvdemos;
 
-import java.awt.Image;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
-import javax.imageio.ImageIO;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
 
 /**
  *
@@ -48,16 +40,42 @@ import org.opencv.videoio.VideoCapture;
  */
 public class BallGame extends javax.swing.JFrame {
 
-    // A timer for acquiring the video stream
-    private ScheduledExecutorService timer;
-    // The OpenCV object that realizes the video capture
-    private VideoCapture capture;
+    // Capture, processing and render threads for the video stream
+    private FramePipeline pipeline;
+    // Where the frames come from, opened on start
+    private FrameSource source;
     // A flag to change the button behavior
     private boolean cameraActive;
     // The ball object
     Ball b;
-    // Flag to determinate if the ball has changed its course
-    boolean ballChanged;
+    // ID of the object the ball last bounced off, while it is still inside
+    // it, so the ball bounces once per hit; 0 if none
+    private int lastHit;
+    // Mats used while processing a frame, recycled at the end of each frame
+    private final MatPool pool = new MatPool();
+    // Stage timings, logged and exposed over JMX while the camera is on
+    private PipelineMetrics metrics;
+    // HSV threshold, morphology and object search
+    private final BallDetector detector = new BallDetector();
+    // Region of each frame to process, around the last objects found
+    private final RoiTracker tracker = new RoiTracker(Integer.getInteger("opencvdemos.roi.padding", 40),
+            Integer.getInteger("opencvdemos.roi.reacquire", 30), 3);
+    // Objects followed from frame to frame, with stable IDs and velocities
+    private final ObjectTracker objectTracker = new ObjectTracker();
+    // Skips detection while the scene is static, null to detect on every frame
+    private final ChangeDetector changeDetector = ChangeDetector.fromProperties();
+    // Objects and region of the last processed frame, shown again while static
+    private ContourAnalysis objects;
+    private Rect roi;
+    private Scalar lastMinValues, lastMaxValues;
+    // Control values published by their listeners on the Swing thread, for
+    // the processing thread: the HSV range as start and stop triples, the
+    // ball speed and the detection mode
+    private volatile int[] hsvRange;
+    private volatile int speed;
+    private volatile boolean backgroundRequested;
+    // HSV range text last sent to the label
+    private String hsvText;
 
     // Ball class
     private class Ball {
@@ -92,157 +110,201 @@ public class BallGame extends javax.swing.JFrame {
         // load the native OpenCV library
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         // Init components
-        this.capture = new VideoCapture();
         this.cameraActive = false;
         this.hsvCurrentValues.setText("");
+        // Thumbnails of the intermediate steps
+        this.maskImage.setImageSize(205, 154);
+        this.morphImage.setImageSize(205, 154);
+        this.detector.setMorphology(MorphologyStage.parse(
+                System.getProperty("opencvdemos.morphology", MorphologyStage.BALL_DEFAULT)));
+        // Starting mode, switched afterwards with the check box
+        BallDetector.Mode mode = BallDetector.Mode.valueOf(
+                System.getProperty("opencvdemos.detection", "color").toUpperCase(Locale.ROOT));
+        this.backgroundMode.setSelected(mode == BallDetector.Mode.BACKGROUND);
+        setMode(mode);
+        this.detector.setRefine(Boolean.getBoolean("opencvdemos.refine"));
+        // The processing thread reads the controls through these fields only
+        for (JSlider slider : new JSlider[]{this.hueStart, this.saturationStart, this.valueStart,
+                this.hueStop, this.saturationStop, this.valueStop}) {
+            slider.addChangeListener(e -> publishHsvRange());
+        }
+        publishHsvRange();
+        this.ballSpeed.addChangeListener(e -> this.speed = this.ballSpeed.getValue());
+        this.speed = this.ballSpeed.getValue();
+        this.backgroundMode.addItemListener(e -> this.backgroundRequested = this.backgroundMode.isSelected());
+        this.backgroundRequested = this.backgroundMode.isSelected();
         this.b = new Ball(currentFrame.getWidth(), currentFrame.getHeight());
     }
 
-    private Mat findAndDrawObjects(Mat maskedImage, Mat frame) {
-        // Init
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-
-        // Find contours
-        Imgproc.findContours(maskedImage, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+    private void publishHsvRange() {
+        this.hsvRange = new int[]{this.hueStart.getValue(), this.saturationStart.getValue(), this.valueStart.getValue(),
+            this.hueStop.getValue(), this.saturationStop.getValue(), this.valueStop.getValue()};
+    }
 
-        // If any contour exist...
-        if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
-            // for each contour, display it in blue
-            for (int idx = 0; idx >= 0; idx = (int) hierarchy.get(0, idx)[0]) {
-                Imgproc.drawContours(frame, contours, idx, new Scalar(250, 0, 0));
-            }
+    // Sets the label on the Swing thread, only when the text changes
+    private void showHsvRange(String text) {
+        if (!text.equals(this.hsvText)) {
+            this.hsvText = text;
+            SwingUtilities.invokeLater(() -> this.hsvCurrentValues.setText(text));
         }
+    }
 
-        return frame;
+    private void setMode(BallDetector.Mode mode) {
+        // Resets the background model when the mode changes
+        this.detector.setMode(mode);
+        // Background subtraction works on a downscaled frame unless told otherwise
+        this.detector.setScale(Integer.getInteger("opencvdemos.scale",
+                mode == BallDetector.Mode.BACKGROUND ? 1 : 0));
+        // The background is modelled over the whole frame, so no regions then
+        this.tracker.setEnabled(Boolean.getBoolean("opencvdemos.roi")
+                && mode == BallDetector.Mode.COLOR);
     }
 
-    private Image mat2Image(Mat frame) {
-        // Create a temporary buffer
-        MatOfByte buffer = new MatOfByte();
-        // Encode the frame in the buffer, according to the PNG format
-        Imgcodecs.imencode(".png", frame, buffer);
-        // Build and return an Image created from the image encoded in the buffer
-        // Return new BufferedImage(new ByteArrayInputStream(buffer.toArray()));
-        BufferedImage img = null;
+    // The source named by opencvdemos.source, e.g. a video file or
+    // synthetic:640x480, else the given one, recorded to the file named by
+    // opencvdemos.record if set; null if it cannot be opened
+    private FrameSource openSource(String defaultSpec) {
         try {
-            img = ImageIO.read(new ByteArrayInputStream(buffer.toArray()));
+            FrameSource source = FrameSource.open(System.getProperty("opencvdemos.source", defaultSpec));
+            String record = System.getProperty("opencvdemos.record");
+            return record == null ? source : RawFrameRecorder.recording(source, new File(record));
         }
-        catch (Exception e) {
+        catch (IOException | IllegalArgumentException e) {
             // log the error
-            System.err.println("Exception while converting frame: " + e);
+            System.err.println("Exception opening the video source: " + e);
+            return null;
         }
-        return img;
     }
 
-    private Image grabFrame() {
-        // Init everything
-        Image imageToShow = null;
-        Mat frame = new Mat();
+    private boolean grabFrame(Frame f) {
+        // Read the current frame
+        return this.source.grab(f);
+    }
 
-        // Check if the capture is open
-        if (this.capture.isOpened()) {
-            try {
-                // Read the current frame
-                this.capture.read(frame);
+    private void processFrame(Frame f) {
+        Mat frame = f.getMat();
+        try {
+            // If the frame is not empty, process it
+            if (!frame.empty()) {
                 // Flip image for easy object manipulation
                 Core.flip(frame, frame, 1);
 
-                // If the frame is not empty, process it
-                if (!frame.empty()) {
-                    // Init
-                    Mat blurredImage = new Mat();
-                    Mat hsvImage = new Mat();
-                    Mat mask = new Mat();
-                    Mat morphOutput = new Mat();
-
-                    // Remove some noise
-                    Imgproc.blur(frame, blurredImage, new Size(7, 7));
-
-                    // Convert the frame to HSV
-                    Imgproc.cvtColor(blurredImage, hsvImage, Imgproc.COLOR_BGR2HSV);
-
-                    // Get thresholding values from the UI
-                    // Remember: H ranges 0-180, S and V range 0-255
-                    Scalar minValues = new Scalar(this.hueStart.getValue(), this.saturationStart.getValue(), this.valueStart.getValue());
-                    Scalar maxValues = new Scalar(this.hueStop.getValue(), this.saturationStop.getValue(), this.valueStop.getValue());
-
-                    // Show the current selected HSV range
-                    String valuesToPrint = "Hue range: " + minValues.val[0] + "-" + maxValues.val[0]
-                                    + ". Sat. range: " + minValues.val[1] + "-" + maxValues.val[1] + ". Value range: "
-                                    + minValues.val[2] + "-" + maxValues.val[2];
-                    hsvCurrentValues.setText(valuesToPrint);
-
-                    // Threshold HSV image to select object
-                    Core.inRange(hsvImage, minValues, maxValues, mask);
-                    // Show the partial output
-                    maskImage.getGraphics().drawImage(this.mat2Image(mask), 0, 0, 205, 154, null);
-
-                    // Morphological operators
-                    // Dilate with large element, erode with small ones
-                    Mat dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(24, 24));
-                    Mat erodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(12, 12));
-
-                    Imgproc.erode(mask, morphOutput, erodeElement);
-                    Imgproc.erode(mask, morphOutput, erodeElement);
-
-                    Imgproc.dilate(mask, morphOutput, dilateElement);
-                    Imgproc.dilate(mask, morphOutput, dilateElement);
-
-                    // Show the partial output
-                    morphImage.getGraphics().drawImage(this.mat2Image(morphOutput), 0, 0, 205, 154, null);
-
-                    // Find the object(s) contours and show them
-                    frame = this.findAndDrawObjects(morphOutput, frame);
-
-                    // Calculate centers and move ball
-                    Mat temp = new Mat();
-                    morphOutput.copyTo(temp);
-                    List<MatOfPoint> contours = new ArrayList<>();
-                    Imgproc.findContours(temp, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-                    for(int i=0; i< contours.size(); i++) {
-                        Rect objectBoundingRectangle = Imgproc.boundingRect(contours.get(i));
-                        int x = objectBoundingRectangle.x + objectBoundingRectangle.width / 2;
-        		int y = objectBoundingRectangle.y + objectBoundingRectangle.height / 2;
-                        
-                        // Move ball
-                        if(!ballChanged) {
-                            if(b.x > objectBoundingRectangle.x && b.x < objectBoundingRectangle.x + objectBoundingRectangle.width &&
-                               b.y > objectBoundingRectangle.y && b.y < objectBoundingRectangle.y + objectBoundingRectangle.height) {
-                                b.dx = -b.dx;
-                                b.dy = -b.dy;
-                                ballChanged = true;
-                            }
-                        }
+                // Get thresholding values from the UI
+                // Remember: H ranges 0-180, S and V range 0-255
+                int[] range = this.hsvRange;
+                this.detector.setHsvRange(range[0], range[1], range[2], range[3], range[4], range[5]);
+                Scalar minValues = this.detector.getMinValues();
+                Scalar maxValues = this.detector.getMaxValues();
+
+                // Show the current selected HSV range
+                String valuesToPrint = "Hue range: " + minValues.val[0] + "-" + maxValues.val[0]
+                                + ". Sat. range: " + minValues.val[1] + "-" + maxValues.val[1] + ". Value range: "
+                                + minValues.val[2] + "-" + maxValues.val[2];
+                showHsvRange(valuesToPrint);
+
+                // Switch the detection mode if asked from the UI
+                BallDetector.Mode mode = this.backgroundRequested
+                        ? BallDetector.Mode.BACKGROUND : BallDetector.Mode.COLOR;
+                boolean modeChanged = mode != this.detector.getMode();
+                if (modeChanged) {
+                    setMode(mode);
+                }
 
-                        // Show crosshair
-                        Imgproc.circle(frame, new Point(x,y), 20, new Scalar(0, 255, 0), 2);
-                        Imgproc.line(frame, new Point(x, y), new Point(x, y - 25), new Scalar(0, 255, 0), 2);
-                        Imgproc.line(frame, new Point(x, y), new Point(x, y + 25), new Scalar(0, 255, 0), 2);
-                        Imgproc.line(frame, new Point(x, y), new Point(x - 25, y), new Scalar(0, 255, 0), 2);
-                        Imgproc.line(frame, new Point(x, y), new Point(x + 25, y), new Scalar(0, 255, 0), 2);
-                        Imgproc.putText(frame, "Tracking object at (" + x + "," + y + ")", new Point(x, y), 1, 1, new Scalar(255, 0, 0), 2);
-                    }
-                    ballChanged = false;
+                // Detect again only if the scene, the range or the mode
+                // changed; a static scene keeps the objects of the last
+                // processed frame
+                if (this.changeDetector != null && (modeChanged || !minValues.equals(this.lastMinValues) || !maxValues.equals(this.lastMaxValues))) {
+                    this.changeDetector.reset();
+                }
+                this.lastMinValues = minValues;
+                this.lastMaxValues = maxValues;
+                if (this.changeDetector == null || this.changeDetector.hasChanged(frame)) {
+                    // Threshold and morphology, only around the last objects while tracking
+                    this.roi = this.tracker.nextRoi(frame.cols(), frame.rows());
+                    Mat region = frame.submat(this.roi);
+                    this.detector.segment(region, this.pool);
+
+                    // Show the partial outputs, before the contour search reuses them
+                    long t = System.nanoTime();
+                    this.maskImage.show(this.detector.getMask());
+                    this.morphImage.show(this.detector.getMorphOutput());
+                    this.metrics.record(PipelineMetrics.Stage.CONVERSION, t);
+
+                    // Find the object(s) contours once
+                    this.objects = this.detector.findObjects(this.roi.x, this.roi.y);
+                    // The region is needed until here, for the refinement
+                    region.release();
+                    this.tracker.update(this.objects);
+                    this.objectTracker.update(this.objects);
+                }
+
+                // Show the contours in blue
+                this.objects.draw(frame, new Scalar(250, 0, 0));
+                if (this.roi.width < frame.cols() || this.roi.height < frame.rows()) {
+                    // Show the tracked region
+                    Imgproc.rectangle(frame, this.roi.tl(), this.roi.br(), new Scalar(128, 128, 128), 1);
+                }
 
-                    // Move and draw the ball
-                    if(b.dx < 0) b.dx = ballSpeed.getValue() * -1; else b.dx = ballSpeed.getValue();
-                    if(b.dy < 0) b.dy = ballSpeed.getValue() * -1; else b.dy = ballSpeed.getValue();
-                    b.move();
-                    Imgproc.circle(frame, new Point(b.x, b.y), b.r, new Scalar(255, 0, 255), -1);
+                // Bounce the ball off the objects in view
+                boolean inside = false;
+                for (int i = 0; i < this.objectTracker.getCount(); i++) {
+                    if (this.objectTracker.getMisses(i) > 0) {
+                        continue;
+                    }
+                    int id = this.objectTracker.getId(i);
+                    int x = (int) this.objectTracker.getX(i);
+                    int y = (int) this.objectTracker.getY(i);
+                    int rw = this.objectTracker.getWidth(i), rh = this.objectTracker.getHeight(i);
+                    double vx = this.objectTracker.getVelocityX(i), vy = this.objectTracker.getVelocityY(i);
+
+                    // Move ball
+                    if(b.x > x - rw / 2 && b.x < x + rw / 2 &&
+                       b.y > y - rh / 2 && b.y < y + rh / 2) {
+                        if(id != lastHit) {
+                            // Back the way it came, or along a moving object
+                            b.dx = Math.abs(vx) > 1 ? (int) Math.signum(vx) : -b.dx;
+                            b.dy = Math.abs(vy) > 1 ? (int) Math.signum(vy) : -b.dy;
+                            lastHit = id;
+                        }
+                        inside |= id == lastHit;
+                    }
 
-                    // convert the Mat object (OpenCV) to Image (Java AWT)
-                    imageToShow = mat2Image(frame);
+                    // Show crosshair
+                    Imgproc.circle(frame, new Point(x,y), 20, new Scalar(0, 255, 0), 2);
+                    Imgproc.line(frame, new Point(x, y), new Point(x, y - 25), new Scalar(0, 255, 0), 2);
+                    Imgproc.line(frame, new Point(x, y), new Point(x, y + 25), new Scalar(0, 255, 0), 2);
+                    Imgproc.line(frame, new Point(x, y), new Point(x - 25, y), new Scalar(0, 255, 0), 2);
+                    Imgproc.line(frame, new Point(x, y), new Point(x + 25, y), new Scalar(0, 255, 0), 2);
+                    // and where it is heading, half a second ahead
+                    Imgproc.line(frame, new Point(x, y), new Point(x + vx * 15, y + vy * 15), new Scalar(0, 255, 255), 2);
+                    Imgproc.putText(frame, "Tracking object " + id + " at (" + x + "," + y + ")", new Point(x, y), 1, 1, new Scalar(255, 0, 0), 2);
+                }
+                if(!inside) {
+                    lastHit = 0;
                 }
 
+                // Move and draw the ball
+                if(b.dx < 0) b.dx = speed * -1; else b.dx = speed;
+                if(b.dy < 0) b.dy = speed * -1; else b.dy = speed;
+                b.move();
+                Imgproc.circle(frame, new Point(b.x, b.y), b.r, new Scalar(255, 0, 255), -1);
             }
-            catch (Exception e) {
-                // log the error
-                System.err.println("Exception during the frame elaboration: " + e);
-            }
         }
+        finally {
+            // hand the frame's Mats back for the next frame
+            this.metrics.setNativeBytes(this.pool.getNativeBytes());
+            this.pool.recycle();
+        }
+    }
 
-        return imageToShow;
+    private void renderFrame(Frame f) {
+        if (!f.getMat().empty()) {
+            // convert the Mat object (OpenCV) to Image (Java AWT), painted
+            // by the Swing thread
+            long t = System.nanoTime();
+            this.currentFrame.show(f.getMat());
+            this.metrics.record(PipelineMetrics.Stage.CONVERSION, t);
+        }
     }
 
     /**
@@ -254,9 +316,9 @@ public class BallGame extends javax.swing.JFrame {
     // <editor-fold defaultstate="collapsed" desc="Generated Code">//GEN-BEGIN:initComponents
     private void initComponents() {
 
-        currentFrame = new javax.swing.JPanel();
-        maskImage = new javax.swing.JPanel();
-        morphImage = new javax.swing.JPanel();
+        currentFrame = new opencvdemos.VideoPanel();
+        maskImage = new opencvdemos.VideoPanel();
+        morphImage = new opencvdemos.VideoPanel();
         ballSpeed = new javax.swing.JSlider();
         btnStart = new javax.swing.JButton();
         hueStart = new javax.swing.JSlider();
@@ -265,6 +327,7 @@ public class BallGame extends javax.swing.JFrame {
         saturationStop = new javax.swing.JSlider();
         valueStart = new javax.swing.JSlider();
         valueStop = new javax.swing.JSlider();
+        backgroundMode = new javax.swing.JCheckBox();
         hsvCurrentValues = new javax.swing.JLabel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
@@ -341,6 +404,9 @@ public class BallGame extends javax.swing.JFrame {
         valueStop.setMaximum(255);
         valueStop.setValue(255);
 
+        backgroundMode.setText("Background subtraction");
+        backgroundMode.setToolTipText("Detect what moves over the learned scene instead of the HSV range");
+
         hsvCurrentValues.setText("[hsvCurrentValues]");
         hsvCurrentValues.setBorder(new javax.swing.border.LineBorder(new java.awt.Color(0, 0, 0), 1, true));
 
@@ -369,7 +435,8 @@ public class BallGame extends javax.swing.JFrame {
                                 .addComponent(ballSpeed, javax.swing.GroupLayout.PREFERRED_SIZE, 119, javax.swing.GroupLayout.PREFERRED_SIZE)
                                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                                 .addComponent(btnStart))
-                            .addComponent(valueStop, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)))
+                            .addComponent(valueStop, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
+                            .addComponent(backgroundMode, javax.swing.GroupLayout.Alignment.LEADING, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)))
                     .addComponent(currentFrame, javax.swing.GroupLayout.PREFERRED_SIZE, 640, javax.swing.GroupLayout.PREFERRED_SIZE))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
@@ -396,6 +463,8 @@ public class BallGame extends javax.swing.JFrame {
                         .addComponent(valueStart, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
                         .addGap(0, 0, 0)
                         .addComponent(valueStop, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, 0)
+                        .addComponent(backgroundMode)
                         .addGap(0, 0, Short.MAX_VALUE))
                     .addGroup(layout.createSequentialGroup()
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING, false)
@@ -411,25 +480,27 @@ public class BallGame extends javax.swing.JFrame {
 
     private void btnStartActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnStartActionPerformed
         if (!this.cameraActive) {
-            // start the video capture
-            this.capture.open(0);
+            // start the video capture, on the camera chosen with
+            // opencvdemos.camera or any source given by opencvdemos.source
+            this.source = openSource("camera:" + Integer.getInteger("opencvdemos.camera", 0));
 
             // is the video stream available?
-            if (this.capture.isOpened()) {
+            if (this.source != null) {
                 this.cameraActive = true;
 
-                // grab a frame every 33 ms (30 frames/sec)
-                Runnable frameGrabber = new Runnable() {
-                    @Override
-                    public void run() {
-                        Image imageToShow = grabFrame();
-                        //currentFrame.setImage(imageToShow);
-                        currentFrame.getGraphics().drawImage(imageToShow, 0, 0, null);
-                    }
-                };
-
-                this.timer = Executors.newSingleThreadScheduledExecutor();
-                this.timer.scheduleAtFixedRate(frameGrabber, 0, 33, TimeUnit.MILLISECONDS);
+                // capture, process and render on separate threads, keeping
+                // only the newest frames when a stage falls behind
+                this.pipeline = new FramePipeline(this::grabFrame, this::processFrame, this::renderFrame,
+                        2, FrameQueue.OverflowPolicy.DROP_OLDEST);
+                this.metrics = new PipelineMetrics(BallGame.class.getSimpleName());
+                this.detector.setMetrics(this.metrics);
+                this.tracker.setMetrics(this.metrics);
+                if (this.changeDetector != null) {
+                    this.changeDetector.setMetrics(this.metrics);
+                }
+                this.pipeline.setMetrics(this.metrics);
+                this.metrics.start(PipelineMetrics.REPORT_INTERVAL);
+                this.pipeline.start();
 
                 // update the button content
                 this.btnStart.setText("Stop Camera");
@@ -445,26 +516,36 @@ public class BallGame extends javax.swing.JFrame {
             // update again the button content
             this.btnStart.setText("Start Camera");
 
-            // stop the timer
+            // stop the capture, processing and render threads
+            boolean stopped = false;
             try {
-                this.timer.shutdown();
-                this.timer.awaitTermination(33, TimeUnit.MILLISECONDS);
+                stopped = this.pipeline.stop(500, TimeUnit.MILLISECONDS);
             }
             catch (InterruptedException e) {
                 // log the exception
                 System.err.println("Exception in stopping the frame capture, trying to release the camera now... " + e);
             }
 
+            this.metrics.stop();
+
             // release the camera
-            this.capture.release();
+            this.source.release();
+            // release the frame buffers, unless a frame is still being processed
+            if (stopped) {
+                this.pool.release();
+                this.detector.release();
+                this.maskImage.release();
+                this.morphImage.release();
+                this.objectTracker.clear();
+                if (this.changeDetector != null) {
+                    this.changeDetector.release();
+                    this.changeDetector.reset();
+                }
+            }
             // clean the frame
-            //this.currentFrame.setImage(null);
-            this.currentFrame.getGraphics().clearRect(0, 0, currentFrame.getWidth(), currentFrame.getHeight());
-            this.currentFrame.getBorder().paintBorder(currentFrame, currentFrame.getGraphics(), 0, 0, currentFrame.getWidth(), currentFrame.getHeight());
-            this.maskImage.getGraphics().clearRect(0, 0, maskImage.getWidth(), maskImage.getHeight());
-            this.maskImage.getBorder().paintBorder(maskImage, maskImage.getGraphics(), 0, 0, maskImage.getWidth(), maskImage.getHeight());
-            this.morphImage.getGraphics().clearRect(0, 0, morphImage.getWidth(), morphImage.getHeight());
-            this.morphImage.getBorder().paintBorder(morphImage, morphImage.getGraphics(), 0, 0, morphImage.getWidth(), morphImage.getHeight());
+            this.currentFrame.clear();
+            this.maskImage.clear();
+            this.morphImage.clear();
         }
     }//GEN-LAST:event_btnStartActionPerformed
 
@@ -504,14 +585,15 @@ public class BallGame extends javax.swing.JFrame {
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JCheckBox backgroundMode;
     private javax.swing.JSlider ballSpeed;
     private javax.swing.JButton btnStart;
-    private javax.swing.JPanel currentFrame;
+    private opencvdemos.VideoPanel currentFrame;
     private javax.swing.JLabel hsvCurrentValues;
     private javax.swing.JSlider hueStart;
     private javax.swing.JSlider hueStop;
-    private javax.swing.JPanel maskImage;
-    private javax.swing.JPanel morphImage;
+    private opencvdemos.VideoPanel maskImage;
+    private opencvdemos.VideoPanel morphImage;
     private javax.swing.JSlider saturationStart;
     private javax.swing.JSlider saturationStop;
     private javax.swing.JSlider valueStart;
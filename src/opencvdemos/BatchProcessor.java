@@ -0,0 +1,383 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Headless batch mode: runs the detection stages of the demos over video
+ * files, cameras, directories of images or any other {@link FrameSource}, as
+ * fast as possible, and writes the detections of every frame as CSV or JSON.
+ *
+ * A single input is processed on the calling thread. Several inputs, or any
+ * camera, are captured at once by a
+ * {@link CaptureManager}, each source with its own detectors, and their
+ * frames interleave in the output, told apart by the source column.
+ *
+ * Frames are processed as read, without the horizontal flip the demos apply
+ * to the live camera.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class BatchProcessor {
+
+    @Parameter(names = {"-i", "--input"}, description = "Video files, image directories or frame sources: camera:N, synthetic:WxH[:FRAMES]")
+    private List<String> inputs = new ArrayList<>();
+
+    @Parameter(names = "--realtime", description = "Replay files and synthetic sources at their frame rate")
+    private boolean realtime;
+
+    @Parameter(names = {"-c", "--camera"}, description = "Camera indexes to capture from")
+    private List<Integer> cameras = new ArrayList<>();
+
+    @Parameter(names = "--threads", description = "Processing threads shared by the sources, when there are several")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "--duration", description = "Seconds to capture for, when there are several sources; 0 until they end")
+    private long duration;
+
+    @Parameter(names = {"-o", "--output"}, description = "Output file (standard output if omitted)")
+    private String output;
+
+    @Parameter(names = {"-f", "--format"}, description = "Output format: csv or json")
+    private String format = "csv";
+
+    @Parameter(names = {"-p", "--pipeline"}, description = "Pipelines to run: ball, roundel, qr")
+    private List<String> pipelines = new ArrayList<>(Arrays.asList("ball", "roundel", "qr"));
+
+    @Parameter(names = "--hsv", description = "Ball HSV range: hueStart,satStart,valStart,hueStop,satStop,valStop; hueStart > hueStop wraps around")
+    private List<Integer> hsv = new ArrayList<>(Arrays.asList(20, 60, 50, 50, 200, 255));
+
+    @Parameter(names = "--morphology", description = "Ball mask clean-up, by default dilate:24x24; erode:12x12x2,dilate:24x24x2 also removes specks")
+    private String morphology = MorphologyStage.BALL_DEFAULT;
+
+    @Parameter(names = "--scale", description = "Pyramid levels to detect at: 0 full resolution, 1 half, 2 quarter")
+    private int scale;
+
+    @Parameter(names = "--refine", description = "Re-measure the balls found at a lower scale at full resolution")
+    private boolean refine;
+
+    @Parameter(names = "--threshold", description = "Roundel threshold: gaussian, or mean for large blocks")
+    private String threshold = "gaussian";
+
+    @Parameter(names = "--block-size", description = "Roundel threshold block size, odd")
+    private int blockSize = 7;
+
+    @Parameter(names = "--blur-size", description = "Roundel mean threshold pixel blur, odd, 1 for none")
+    private int blurSize = 7;
+
+    @Parameter(names = "--threshold-strips", description = "Roundel threshold strips run in parallel, 1 for none; by default one per core with a single input, 1 with several")
+    private Integer thresholdStrips;
+
+    @Parameter(names = "--min-area", description = "Smallest roundel contour area reported")
+    private double minArea = 100;
+
+    @Parameter(names = {"-h", "--help"}, help = true, description = "Show this help")
+    private boolean help;
+
+    /**
+     * Detection stages of one source.
+     */
+    private class Detectors {
+        private final BallDetector ballDetector = new BallDetector();
+        private final RoundelDetector roundelDetector = new RoundelDetector();
+        private final MultiFormatReader qrReader = new MultiFormatReader();
+
+        /**
+         * @param metrics stage timers, or null
+         * @throws IllegalArgumentException if an option is invalid
+         */
+        Detectors(PipelineMetrics metrics) {
+            this.ballDetector.setMorphology(MorphologyStage.parse(morphology));
+            this.ballDetector.setScale(scale);
+            this.ballDetector.setRefine(refine);
+            this.ballDetector.setHsvRange(hsv.get(0), hsv.get(1), hsv.get(2), hsv.get(3), hsv.get(4), hsv.get(5));
+            this.ballDetector.setMetrics(metrics);
+            this.roundelDetector.setScale(scale);
+            this.roundelDetector.setMinArea(minArea);
+            this.roundelDetector.setThresholdMethod(RoundelDetector.ThresholdMethod.valueOf(threshold.toUpperCase(Locale.ROOT)));
+            this.roundelDetector.setBlockSize(blockSize);
+            this.roundelDetector.setBlurSize(blurSize);
+            this.roundelDetector.setThresholdStrips(getThresholdStrips());
+            this.roundelDetector.setMetrics(metrics);
+            this.qrReader.setHints(RoundelCardboardDetection.QR_HINTS);
+        }
+
+        void release() {
+            this.ballDetector.release();
+            this.roundelDetector.release();
+        }
+    }
+
+    /**
+     * A detection, kept until the frame is written.
+     */
+    private static class Detection {
+        private final String pipeline;
+        private final double x, y, width, height;
+        private final String text;
+
+        Detection(String pipeline, double x, double y, double width, double height, String text) {
+            this.pipeline = pipeline;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.text = text;
+        }
+    }
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BatchProcessor processor = new BatchProcessor();
+        JCommander commander = new JCommander(processor);
+        commander.setProgramName(BatchProcessor.class.getSimpleName());
+        try {
+            commander.parse(args);
+            processor.validate();
+        }
+        catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            commander.usage();
+            System.exit(1);
+        }
+        if (processor.help) {
+            commander.usage();
+            return;
+        }
+
+        // load the native OpenCV library
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        processor.run();
+    }
+
+    private void validate() {
+        if (this.help) {
+            return;
+        }
+        if (this.inputs.isEmpty() && this.cameras.isEmpty()) {
+            throw new ParameterException("--input or --camera is required");
+        }
+        if (this.threads < 1) {
+            throw new ParameterException("--threads must be positive");
+        }
+        try {
+            DetectionWriter.Format.valueOf(this.format.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            throw new ParameterException("Unknown format: " + this.format);
+        }
+        for (String pipeline : this.pipelines) {
+            if (!Arrays.asList("ball", "roundel", "qr").contains(pipeline)) {
+                throw new ParameterException("Unknown pipeline: " + pipeline);
+            }
+        }
+        if (this.hsv.size() != 6) {
+            throw new ParameterException("--hsv needs six values");
+        }
+        try {
+            RoundelDetector.ThresholdMethod.valueOf(this.threshold.toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            throw new ParameterException("Unknown threshold: " + this.threshold);
+        }
+        try {
+            // Fails on a bad morphology chain, scale, block or blur size
+            new Detectors(null);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ParameterException(e.getMessage());
+        }
+    }
+
+    // Several inputs already keep the cores busy; a single one is processed
+    // on one thread, so its threshold is split instead
+    private int getThresholdStrips() {
+        if (this.thresholdStrips != null) {
+            return this.thresholdStrips;
+        }
+        return isConcurrent() ? 1 : Runtime.getRuntime().availableProcessors();
+    }
+
+    private boolean isConcurrent() {
+        return this.inputs.size() + this.cameras.size() > 1 || !this.cameras.isEmpty();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        Writer out = new BufferedWriter(this.output == null
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(new FileOutputStream(this.output), StandardCharsets.UTF_8));
+
+        long frames;
+        long start = System.nanoTime();
+        try (DetectionWriter writer = new DetectionWriter(out, DetectionWriter.Format.valueOf(this.format.toUpperCase(Locale.ROOT)))) {
+            frames = isConcurrent() ? runConcurrent(writer) : runSequential(open(this.inputs.get(0)), writer);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Processed %d frames in %.1f s (%.1f frames/sec)%n", frames, seconds, frames / seconds);
+    }
+
+    private FrameSource open(String input) throws IOException {
+        FrameSource source = FrameSource.open(input);
+        source.setPacing(this.realtime ? FrameSource.Pacing.REAL_TIME : FrameSource.Pacing.AS_FAST_AS_POSSIBLE);
+        return source;
+    }
+
+    // One source, on this thread
+    private long runSequential(FrameSource source, DetectionWriter writer) throws IOException {
+        Detectors detectors = new Detectors(null);
+        MatPool pool = new MatPool();
+        Mat frame = new Mat();
+        long frames = 0;
+        try {
+            while (source.read(frame)) {
+                // Images are told apart by their file name
+                String name = source instanceof ImageDirectorySource
+                        ? ((ImageDirectorySource) source).getCurrentFile().getName() : source.getName();
+                write(writer, frames++, name, detect(frame, detectors, pool));
+            }
+        }
+        finally {
+            frame.release();
+            source.release();
+            pool.release();
+            detectors.release();
+        }
+        return frames;
+    }
+
+    // Every source at once, without dropping frames
+    private long runConcurrent(DetectionWriter writer) throws IOException, InterruptedException {
+        CaptureManager manager = new CaptureManager(BatchProcessor.class.getSimpleName(), 2, false);
+        List<Detectors> allDetectors = new ArrayList<>();
+        try {
+            for (int camera : this.cameras) {
+                manager.addCamera(camera);
+            }
+            for (String input : this.inputs) {
+                manager.addSource(open(input));
+            }
+            manager.start(source -> {
+                Detectors detectors = new Detectors(source.getMetrics());
+                allDetectors.add(detectors);
+                return (frame, pool) -> {
+                    List<Detection> detections = detect(frame.getMat(), detectors, pool);
+                    try {
+                        write(writer, frame.getSequence(), source.getName(), detections);
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+            }, this.threads);
+            if (this.duration > 0) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(this.duration));
+            }
+            else {
+                manager.awaitCompletion();
+            }
+        }
+        finally {
+            if (manager.stop(5, TimeUnit.SECONDS)) {
+                for (Detectors detectors : allDetectors) {
+                    detectors.release();
+                }
+            }
+        }
+        long frames = 0;
+        for (CaptureManager.Source source : manager.getSources()) {
+            frames += source.getProcessedFrames();
+        }
+        return frames;
+    }
+
+    private List<Detection> detect(Mat frame, Detectors detectors, MatPool pool) {
+        List<Detection> detections = new ArrayList<>();
+        try {
+            if (this.pipelines.contains("ball")) {
+                for (Rect r : detectors.ballDetector.detect(frame, pool)) {
+                    detections.add(new Detection("ball", r.x, r.y, r.width, r.height, null));
+                }
+            }
+            if (this.pipelines.contains("roundel") || this.pipelines.contains("qr")) {
+                detectors.roundelDetector.process(frame, pool);
+            }
+            if (this.pipelines.contains("roundel")) {
+                for (Rect r : detectors.roundelDetector.findObjects()) {
+                    detections.add(new Detection("roundel", r.x, r.y, r.width, r.height, null));
+                }
+            }
+            if (this.pipelines.contains("qr")) {
+                try {
+                    Result result = QRCode.readQRCode(new MatLuminanceSource(detectors.roundelDetector.getGray()), detectors.qrReader);
+                    ResultPoint center = QRCode.getCenter(result.getResultPoints());
+                    if (center != null) {
+                        detections.add(new Detection("qr", center.getX(), center.getY(), 0, 0, result.getText()));
+                    }
+                }
+                catch (NotFoundException e) {
+                    // No code in this frame
+                }
+                finally {
+                    detectors.qrReader.reset();
+                }
+            }
+        }
+        finally {
+            pool.recycle();
+        }
+        return detections;
+    }
+
+    // Writes a whole frame at once, so the frames of several sources do not mix
+    private static void write(DetectionWriter writer, long frameNumber, String source, List<Detection> detections) throws IOException {
+        synchronized (writer) {
+            writer.beginFrame(frameNumber, source);
+            try {
+                for (Detection d : detections) {
+                    writer.write(d.pipeline, d.x, d.y, d.width, d.height, d.text);
+                }
+            }
+            finally {
+                writer.endFrame();
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Captures several video sources at once in one process.
+ *
+ * Every source has its own capture thread and a small queue of frames,
+ * tagged with the source id, sequence and capture time. Processing runs on a
+ * pool shared by all the sources, one thread per core by default. The frames
+ * of a source are processed one at a time and in order, by a processor and
+ * a {@link MatPool} of its own, so detectors need no locking; different
+ * sources are processed in parallel. Each source gets a task per frame, so a
+ * fast source cannot starve the others when there are more sources than
+ * threads.
+ *
+ * When processing falls behind, live sources drop their oldest waiting
+ * frame; batch runs can instead hold the capture thread until a frame slot
+ * is free, so no frame is lost.
+ *
+ * Each source is timed by its own {@link PipelineMetrics}, named
+ * "NAME SOURCE".
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class CaptureManager {
+
+    /**
+     * Processes a frame of a source. Runs on a thread of the shared pool,
+     * never on two threads at once for the same source.
+     */
+    public interface Processor {
+        /**
+         * @param frame the frame, recycled once this returns
+         * @param pool pool of the source, recycled once this returns
+         */
+        void process(Frame frame, MatPool pool);
+    }
+
+    /**
+     * Creates the processor of each source, e.g. with its own detectors.
+     */
+    public interface ProcessorFactory {
+        Processor create(Source source);
+    }
+
+    /**
+     * A video source and its state.
+     */
+    public static class Source {
+        private final int id;
+        private final String name;
+        private final FramePipeline.Grabber grabber;
+        // Source released by the manager, or null
+        private final FrameSource frameSource;
+        private final PipelineMetrics metrics;
+        // Frames captured and waiting to be processed
+        private final FrameQueue<Frame> queue;
+        // Frames ready to be captured into again
+        private final ConcurrentLinkedQueue<Frame> free = new ConcurrentLinkedQueue<>();
+        // Frames allowed in flight when frames are not dropped
+        private final Semaphore slots;
+        // Set while a processing task of this source is queued or running
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final MatPool pool = new MatPool();
+        private final AtomicLong capturedFrames = new AtomicLong();
+        private final AtomicLong processedFrames = new AtomicLong();
+        private Processor processor;
+        private Thread thread;
+
+        private Source(int id, String name, FramePipeline.Grabber grabber, FrameSource frameSource,
+                PipelineMetrics metrics, int queueCapacity) {
+            this.id = id;
+            this.name = name;
+            this.grabber = grabber;
+            this.frameSource = frameSource;
+            this.metrics = metrics;
+            this.queue = new FrameQueue<>(queueCapacity, FrameQueue.OverflowPolicy.DROP_OLDEST);
+            // Frames being captured, waiting or being processed. The queue
+            // must have room for the one being captured even while none is
+            // being processed, or it would drop the oldest
+            this.slots = new Semaphore(queueCapacity);
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return the timers of this source, for its detectors
+         */
+        public PipelineMetrics getMetrics() {
+            return this.metrics;
+        }
+
+        public long getCapturedFrames() {
+            return this.capturedFrames.get();
+        }
+
+        public long getProcessedFrames() {
+            return this.processedFrames.get();
+        }
+
+        /**
+         * @return number of frames dropped because processing fell behind
+         */
+        public long getDroppedFrames() {
+            return this.queue.getDroppedCount();
+        }
+
+        // True while frames are waiting or being processed
+        private boolean isBusy() {
+            return this.scheduled.get() || this.queue.size() > 0;
+        }
+    }
+
+    // How long a capture thread waits for a frame slot before checking for stop
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final int queueCapacity;
+    private final boolean dropFrames;
+    private final List<Source> sources = new ArrayList<>();
+    private ExecutorService workers;
+    private volatile boolean running;
+    // Set by the first stop, which is the only one to release anything
+    private boolean stopping;
+
+    /**
+     * @param name name of the manager, used in the metrics names
+     * @param queueCapacity frames each source may have waiting
+     * @param dropFrames true to drop the oldest waiting frame when processing
+     * falls behind, as live video should; false to wait for processing
+     */
+    public CaptureManager(String name, int queueCapacity, boolean dropFrames) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + queueCapacity);
+        }
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.dropFrames = dropFrames;
+    }
+
+    /**
+     * Opens a camera.
+     *
+     * @param device camera index
+     * @return the source id
+     * @throws IOException if the camera cannot be opened
+     */
+    public int addCamera(int device) throws IOException {
+        return addSource(new VideoCaptureSource(device));
+    }
+
+    /**
+     * Opens a video file, replayed at its frame rate, e.g. a recording
+     * standing in for a camera.
+     *
+     * @param path the file
+     * @return the source id
+     * @throws IOException if the file cannot be opened
+     */
+    public int addFile(String path) throws IOException {
+        return addSource(new VideoCaptureSource(path));
+    }
+
+    /**
+     * Adds a source, released when the manager stops.
+     *
+     * @param source the source, with its pacing set
+     * @return the source id
+     */
+    public int addSource(FrameSource source) {
+        return add(source.getName(), source, source);
+    }
+
+    /**
+     * Adds a source read by the caller.
+     *
+     * @param sourceName name of the source
+     * @param grabber fills the frames; runs on the capture thread of the source
+     * @return the source id
+     */
+    public int addSource(String sourceName, FramePipeline.Grabber grabber) {
+        return add(sourceName, grabber, null);
+    }
+
+    private synchronized int add(String sourceName, FramePipeline.Grabber grabber, FrameSource frameSource) {
+        if (this.running || this.stopping) {
+            throw new IllegalStateException("Sources must be added before starting");
+        }
+        int id = this.sources.size();
+        this.sources.add(new Source(id, sourceName, grabber, frameSource,
+                new PipelineMetrics(this.name + " " + sourceName), this.queueCapacity));
+        return id;
+    }
+
+    /**
+     * @return the sources, by id
+     */
+    public List<Source> getSources() {
+        return Collections.unmodifiableList(this.sources);
+    }
+
+    /**
+     * Starts capturing, with one processing thread per core.
+     *
+     * @param factory creates the processor of each source
+     */
+    public void start(ProcessorFactory factory) {
+        start(factory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts capturing.
+     *
+     * @param factory creates the processor of each source
+     * @param threads size of the shared processing pool
+     */
+    public synchronized void start(ProcessorFactory factory, int threads) {
+        if (this.running || this.stopping) {
+            throw new IllegalStateException("A manager can only be started once");
+        }
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "process-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+        for (Source source : this.sources) {
+            source.processor = factory.create(source);
+            source.metrics.start(PipelineMetrics.REPORT_INTERVAL);
+            source.thread = new Thread(() -> captureLoop(source), "capture-" + source.name);
+            source.thread.setDaemon(true);
+            source.thread.start();
+        }
+    }
+
+    /**
+     * Waits until every source has ended and its frames are processed;
+     * cameras only end when stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        for (Source source : this.sources) {
+            source.thread.join();
+        }
+        for (Source source : this.sources) {
+            while (this.running && source.isBusy()) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Stops capturing and processing, then releases the frames, pools and
+     * sources. Sources added to a manager that was never started, or that
+     * failed to start, are released too. Only the first call does anything.
+     *
+     * @param timeout how long to wait for each thread
+     * @param unit unit of the timeout
+     * @return true if every thread ended and the resources were released
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.stopping) {
+            return true;
+        }
+        this.stopping = true;
+        this.running = false;
+        boolean stopped = true;
+        for (Source source : this.sources) {
+            if (source.thread != null) {
+                source.thread.join(unit.toMillis(timeout));
+                stopped &= !source.thread.isAlive();
+            }
+        }
+        if (this.workers != null) {
+            this.workers.shutdown();
+            stopped &= this.workers.awaitTermination(timeout, unit);
+        }
+        for (Source source : this.sources) {
+            source.metrics.stop();
+            if (stopped) {
+                List<Frame> frames = new ArrayList<>(source.free);
+                source.free.clear();
+                source.queue.drainTo(frames);
+                for (Frame frame : frames) {
+                    frame.release();
+                }
+                source.pool.release();
+                if (source.frameSource != null) {
+                    source.frameSource.release();
+                }
+            }
+        }
+        return stopped;
+    }
+
+    private void captureLoop(Source source) {
+        while (this.running) {
+            if (!this.dropFrames && !acquireSlot(source)) {
+                break;
+            }
+            Frame frame = source.free.poll();
+            if (frame == null) {
+                frame = new Frame();
+            }
+            long start = System.nanoTime();
+            try {
+                if (!source.grabber.grab(frame)) {
+                    recycle(source, frame);
+                    break;
+                }
+            }
+            catch (Exception e) {
+                // log the error; a source that fails to read cannot go on,
+                // the other sources keep running
+                System.err.println("Exception during the image capture of " + source.name + ": " + e);
+                source.metrics.error();
+                recycle(source, frame);
+                break;
+            }
+            long now = source.metrics.record(PipelineMetrics.Stage.CAPTURE, start);
+            frame.captured(source.id, source.capturedFrames.getAndIncrement(), now);
+            Frame dropped = source.queue.offer(frame);
+            if (dropped != null) {
+                source.metrics.frameDropped();
+                recycle(source, dropped);
+            }
+            schedule(source);
+        }
+    }
+
+    // Waits for room for one more frame, until stopped
+    private boolean acquireSlot(Source source) {
+        try {
+            while (this.running) {
+                if (source.slots.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void recycle(Source source, Frame frame) {
+        source.free.add(frame);
+        if (!this.dropFrames) {
+            source.slots.release();
+        }
+    }
+
+    private void schedule(Source source) {
+        if (source.scheduled.compareAndSet(false, true)) {
+            try {
+                this.workers.execute(() -> processNext(source));
+            }
+            catch (RejectedExecutionException e) {
+                // stopping
+                source.scheduled.set(false);
+            }
+        }
+    }
+
+    // Processes the oldest frame of a source, then queues another task if
+    // more are waiting, behind the other sources
+    private void processNext(Source source) {
+        try {
+            Frame frame = source.queue.poll(0, TimeUnit.NANOSECONDS);
+            if (frame != null && this.running) {
+                try {
+                    source.processor.process(frame, source.pool);
+                    source.processedFrames.incrementAndGet();
+                    source.metrics.frameRendered(System.nanoTime() - frame.getCaptureNanos());
+                }
+                catch (Exception e) {
+                    // log the error
+                    System.err.println("Exception during the frame elaboration of " + source.name + ": " + e);
+                    source.metrics.error();
+                }
+                finally {
+                    source.metrics.setNativeBytes(source.pool.getNativeBytes());
+                    source.pool.recycle();
+                }
+            }
+            if (frame != null) {
+                recycle(source, frame);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            source.scheduled.set(false);
+        }
+        if (this.running && source.queue.size() > 0) {
+            schedule(source);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Tells whether a frame differs enough from the last processed one to be
+ * worth processing, so static scenes can reuse the last detections.
+ *
+ * Frames are shrunk to a thumbnail about 80 pixels wide, each cell the mean
+ * of a block of pixels, which also averages the sensor noise away. A frame
+ * has changed when the sum of absolute differences of B, G and R in any
+ * cell, against the thumbnail of the last processed frame, is over the
+ * threshold. Comparing against the last processed frame, rather than the
+ * previous one, catches slow changes too; a frame is processed anyway after
+ * a number of skipped ones.
+ *
+ * Not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class ChangeDetector {
+
+    // Thumbnail width, in cells
+    private static final int CELLS = 80;
+
+    private final int threshold;
+    private final int maxSkipped;
+
+    // Thumbnail of the frame, created on first use
+    private Mat thumbnail;
+    // Cells of the frame and of the last processed frame
+    private byte[] cells = new byte[0];
+    private byte[] reference = new byte[0];
+    private boolean hasReference;
+    private int skipped;
+
+    // Optional counters
+    private PipelineMetrics metrics;
+
+    /**
+     * @param threshold largest sum of absolute B, G and R differences of a
+     * cell that still counts as unchanged
+     * @param maxSkipped frames skipped in a row before one is processed anyway
+     */
+    public ChangeDetector(int threshold, int maxSkipped) {
+        if (threshold < 0 || maxSkipped < 0) {
+            throw new IllegalArgumentException("Invalid change detector settings: " + threshold + ", " + maxSkipped);
+        }
+        this.threshold = threshold;
+        this.maxSkipped = maxSkipped;
+    }
+
+    /**
+     * Builds the detector of the demos from the system properties
+     * opencvdemos.change.threshold (24 by default, negative to process
+     * every frame) and opencvdemos.change.maxSkipped (30).
+     *
+     * @return the detector, or null if disabled
+     */
+    public static ChangeDetector fromProperties() {
+        int threshold = Integer.getInteger("opencvdemos.change.threshold", 24);
+        return threshold < 0 ? null : new ChangeDetector(threshold, Integer.getInteger("opencvdemos.change.maxSkipped", 30));
+    }
+
+    /**
+     * Times the comparison and counts the skipped frames.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compares a frame with the last processed one. When it returns true,
+     * the frame becomes the new reference.
+     *
+     * @param frame a BGR frame
+     * @return true if the frame should be processed
+     */
+    public boolean hasChanged(Mat frame) {
+        long t = System.nanoTime();
+        int cols = Math.min(CELLS, frame.cols());
+        int rows = Math.max(1, (int) Math.round((double) frame.rows() * cols / frame.cols()));
+        if (this.thumbnail == null) {
+            this.thumbnail = new Mat();
+        }
+        Imgproc.resize(frame, this.thumbnail, new Size(cols, rows), 0, 0, Imgproc.INTER_AREA);
+        int size = (int) (this.thumbnail.total() * this.thumbnail.channels());
+        if (this.cells.length != size) {
+            // New frame size, start over
+            this.cells = new byte[size];
+            this.reference = new byte[size];
+            this.hasReference = false;
+        }
+        this.thumbnail.get(0, 0, this.cells);
+
+        boolean changed = !this.hasReference || this.skipped >= this.maxSkipped
+                || differs(this.cells, this.reference, this.thumbnail.channels(), this.threshold);
+        if (changed) {
+            byte[] swap = this.reference;
+            this.reference = this.cells;
+            this.cells = swap;
+            this.hasReference = true;
+            this.skipped = 0;
+        }
+        else {
+            this.skipped++;
+        }
+        if (this.metrics != null) {
+            this.metrics.record(PipelineMetrics.Stage.CHANGE, t);
+            this.metrics.frameChecked(!changed);
+        }
+        return changed;
+    }
+
+    // True if any cell differs by more than the threshold
+    static boolean differs(byte[] cells, byte[] reference, int channels, int threshold) {
+        for (int i = 0; i < cells.length; i += channels) {
+            int sad = 0;
+            for (int c = 0; c < channels; c++) {
+                sad += Math.abs((cells[i + c] & 0xff) - (reference[i + c] & 0xff));
+            }
+            if (sad > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the reference, so the next frame is processed.
+     */
+    public void reset() {
+        this.hasReference = false;
+    }
+
+    /**
+     * Releases the native buffer of the thumbnails.
+     */
+    public void release() {
+        if (this.thumbnail != null) {
+            this.thumbnail.release();
+            this.thumbnail = null;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Contours of a binary image found in a single pass, with the bounding
+ * rectangle, centroid and area of each outermost contour.
+ *
+ * One findContours call with RETR_TREE serves both the drawing and the
+ * object search. Every outer contour is drawn, including blobs inside the
+ * holes of others, as the RETR_CCOMP drawing did; only the outermost ones,
+ * the ones RETR_EXTERNAL returned, are measured as objects. Results are kept
+ * in primitive arrays, reused from frame to frame, and stay valid until the
+ * next analysis.
+ *
+ * Not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class ContourAnalysis {
+
+    // Every contour found, outer and holes, and their hierarchy; the
+    // hierarchy Mat is created on first use, so an analysis can be built
+    // before the native library is loaded
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private Mat hierarchy;
+    // Outer contours at any depth, for drawing
+    private final List<MatOfPoint> outer = new ArrayList<>();
+
+    // Per outermost contour: bounding rectangle, centroid and area
+    private int count;
+    private int[] rectX = new int[16], rectY = new int[16], rectWidth = new int[16], rectHeight = new int[16];
+    private double[] centroidX = new double[16], centroidY = new double[16], area = new double[16];
+
+    // Scratch buffers; depth of each contour in the tree, 0 for the outermost
+    private int[] links = new int[0];
+    private int[] depths = new int[0];
+    private int[] points = new int[0];
+
+    /**
+     * Finds the contours of a binary image.
+     *
+     * @param binary a CV_8UC1 image; it is modified, as findContours does
+     */
+    public void analyze(Mat binary) {
+        analyze(binary, 0, 0);
+    }
+
+    /**
+     * Finds the contours of a region of a frame, in frame coordinates.
+     *
+     * @param binary a CV_8UC1 image; it is modified, as findContours does
+     * @param offsetX x of the region in the frame
+     * @param offsetY y of the region in the frame
+     */
+    public void analyze(Mat binary, int offsetX, int offsetY) {
+        analyze(binary, offsetX, offsetY, 1);
+    }
+
+    /**
+     * Finds the contours of a downscaled region of a frame, in the
+     * coordinates of the full resolution frame. Contour points are scaled
+     * too, so drawing them lands in place.
+     *
+     * @param binary a CV_8UC1 image; it is modified, as findContours does
+     * @param offsetX x of the region in the frame
+     * @param offsetY y of the region in the frame
+     * @param scale frame pixels per binary image pixel
+     */
+    public void analyze(Mat binary, int offsetX, int offsetY, int scale) {
+        clear();
+        if (this.hierarchy == null) {
+            this.hierarchy = new Mat();
+        }
+        if (scale == 1) {
+            // findContours applies the offset itself
+            Imgproc.findContours(binary, this.contours, this.hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE,
+                    new Point(offsetX, offsetY));
+            offsetX = 0;
+            offsetY = 0;
+        }
+        else {
+            Imgproc.findContours(binary, this.contours, this.hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_SIMPLE);
+        }
+        int total = this.contours.size();
+        if (total == 0) {
+            return;
+        }
+
+        // One JNI call for the whole hierarchy: next, previous, child, parent
+        if (this.links.length < total * 4) {
+            this.links = new int[total * 4];
+            this.depths = new int[total];
+        }
+        this.hierarchy.get(0, 0, this.links);
+        for (int idx = 0; idx < total; idx++) {
+            int depth = 0;
+            for (int parent = this.links[idx * 4 + 3]; parent >= 0; parent = this.links[parent * 4 + 3]) {
+                depth++;
+            }
+            this.depths[idx] = depth;
+        }
+
+        for (int idx = 0; idx < total; idx++) {
+            MatOfPoint contour = this.contours.get(idx);
+            int n = (int) contour.total();
+            if (this.points.length < n * 2) {
+                this.points = new int[n * 2];
+            }
+            contour.get(0, 0, this.points);
+
+            // Holes are at odd depths, blobs inside holes at even ones
+            if (this.depths[idx] % 2 == 0) {
+                this.outer.add(contour);
+            }
+            if (this.depths[idx] == 0) {
+                measure(n, offsetX, offsetY, scale);
+            }
+            if (scale != 1) {
+                for (int i = 0; i < n; i++) {
+                    this.points[i * 2] = this.points[i * 2] * scale + offsetX;
+                    this.points[i * 2 + 1] = this.points[i * 2 + 1] * scale + offsetY;
+                }
+                contour.put(0, 0, this.points);
+            }
+        }
+    }
+
+    // Bounding rectangle, area and centroid (shoelace formula) of the n
+    // points in the buffer, mapped to frame coordinates
+    private void measure(int n, int offsetX, int offsetY, int scale) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        double sumX = 0, sumY = 0;
+        double a = 0, cx = 0, cy = 0;
+        for (int i = 0; i < n; i++) {
+            int x0 = this.points[i * 2], y0 = this.points[i * 2 + 1];
+            int j = i + 1 < n ? i + 1 : 0;
+            int x1 = this.points[j * 2], y1 = this.points[j * 2 + 1];
+            minX = Math.min(minX, x0);
+            minY = Math.min(minY, y0);
+            maxX = Math.max(maxX, x0);
+            maxY = Math.max(maxY, y0);
+            sumX += x0;
+            sumY += y0;
+            double cross = (double) x0 * y1 - (double) x1 * y0;
+            a += cross;
+            cx += (x0 + x1) * cross;
+            cy += (y0 + y1) * cross;
+        }
+
+        ensureCapacity(this.count + 1);
+        int k = this.count++;
+        this.rectX[k] = minX * scale + offsetX;
+        this.rectY[k] = minY * scale + offsetY;
+        this.rectWidth[k] = (maxX - minX + 1) * scale;
+        this.rectHeight[k] = (maxY - minY + 1) * scale;
+        this.area[k] = Math.abs(a) / 2 * scale * scale;
+        if (a != 0) {
+            cx /= 3 * a;
+            cy /= 3 * a;
+        }
+        else {
+            // Degenerate contour (a line or a point): mean of its points
+            cx = sumX / n;
+            cy = sumY / n;
+        }
+        // A downscaled pixel covers scale x scale frame pixels, take its center
+        this.centroidX[k] = cx * scale + (scale - 1) / 2.0 + offsetX;
+        this.centroidY[k] = cy * scale + (scale - 1) / 2.0 + offsetY;
+    }
+
+    /**
+     * Replaces the measurements of an outermost contour, e.g. with ones taken at
+     * a higher resolution.
+     */
+    void refine(int i, int x, int y, int width, int height, double cx, double cy) {
+        this.rectX[i] = x;
+        this.rectY[i] = y;
+        this.rectWidth[i] = width;
+        this.rectHeight[i] = height;
+        this.centroidX[i] = cx;
+        this.centroidY[i] = cy;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > this.rectX.length) {
+            int length = Math.max(size, this.rectX.length * 2);
+            this.rectX = Arrays.copyOf(this.rectX, length);
+            this.rectY = Arrays.copyOf(this.rectY, length);
+            this.rectWidth = Arrays.copyOf(this.rectWidth, length);
+            this.rectHeight = Arrays.copyOf(this.rectHeight, length);
+            this.centroidX = Arrays.copyOf(this.centroidX, length);
+            this.centroidY = Arrays.copyOf(this.centroidY, length);
+            this.area = Arrays.copyOf(this.area, length);
+        }
+    }
+
+    /**
+     * Draws the outer contours, at any depth, in one call.
+     *
+     * @param frame where to draw
+     * @param color line color
+     */
+    public void draw(Mat frame, Scalar color) {
+        if (!this.outer.isEmpty()) {
+            Imgproc.drawContours(frame, this.outer, -1, color);
+        }
+    }
+
+    /**
+     * @return number of outermost contours
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    public int getRectX(int i) {
+        return this.rectX[i];
+    }
+
+    public int getRectY(int i) {
+        return this.rectY[i];
+    }
+
+    public int getRectWidth(int i) {
+        return this.rectWidth[i];
+    }
+
+    public int getRectHeight(int i) {
+        return this.rectHeight[i];
+    }
+
+    public double getCentroidX(int i) {
+        return this.centroidX[i];
+    }
+
+    public double getCentroidY(int i) {
+        return this.centroidY[i];
+    }
+
+    /**
+     * @return area enclosed by the outermost contour, as contourArea computes it
+     */
+    public double getArea(int i) {
+        return this.area[i];
+    }
+
+    /**
+     * @return bounding rectangle of the outermost contour
+     */
+    public Rect getBoundingRect(int i) {
+        return new Rect(this.rectX[i], this.rectY[i], this.rectWidth[i], this.rectHeight[i]);
+    }
+
+    /**
+     * @return bounding rectangles of every outermost contour
+     */
+    public List<Rect> getBoundingRects() {
+        List<Rect> rects = new ArrayList<>(this.count);
+        for (int i = 0; i < this.count; i++) {
+            rects.add(getBoundingRect(i));
+        }
+        return rects;
+    }
+
+    /**
+     * @return every contour of the last analysis, outer and holes
+     */
+    public List<MatOfPoint> getContours() {
+        return this.contours;
+    }
+
+    /**
+     * @return hierarchy of the contours, as returned by findContours; null
+     * before the first analysis
+     */
+    public Mat getHierarchy() {
+        return this.hierarchy;
+    }
+
+    private void clear() {
+        for (MatOfPoint contour : this.contours) {
+            contour.release();
+        }
+        this.contours.clear();
+        this.outer.clear();
+        this.count = 0;
+    }
+
+    /**
+     * Releases the native memory of the contours.
+     */
+    public void release() {
+        clear();
+        if (this.hierarchy != null) {
+            this.hierarchy.release();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Measures frames/sec of the Mat to Image conversion, comparing the former PNG
+ * round trip against {@link MatImageConverter}.
+ *
+ * Usage: ConversionBenchmark [frames] (needs -Djava.library.path to OpenCV)
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class ConversionBenchmark {
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+
+        // Same streams as the demos: live frame (BGR), mask and morph (gray)
+        Mat color = new Mat(480, 640, CvType.CV_8UC3);
+        Mat gray = new Mat(480, 640, CvType.CV_8UC1);
+        Core.randu(color, 0, 255);
+        Core.randu(gray, 0, 255);
+
+        // Warm up both paths
+        runPng(color, gray, frames / 10 + 1);
+        runDirect(color, gray, frames / 10 + 1);
+
+        double png = runPng(color, gray, frames);
+        double direct = runDirect(color, gray, frames);
+        System.out.printf("640x480, 3 conversions per frame, %d frames%n", frames);
+        System.out.printf("PNG round trip: %8.1f frames/sec%n", png);
+        System.out.printf("Direct copy:    %8.1f frames/sec%n", direct);
+        System.out.printf("Speed-up:       %8.1fx%n", direct / png);
+    }
+
+    private static double runPng(Mat color, Mat gray, int frames) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            pngRoundTrip(color);
+            pngRoundTrip(gray);
+            pngRoundTrip(gray);
+        }
+        return frames * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static double runDirect(Mat color, Mat gray, int frames) {
+        MatImageConverter frameConverter = new MatImageConverter();
+        MatImageConverter maskConverter = new MatImageConverter();
+        MatImageConverter morphConverter = new MatImageConverter();
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            frameConverter.convert(color);
+            maskConverter.convert(gray);
+            morphConverter.convert(gray);
+        }
+        return frames * 1e9 / (System.nanoTime() - start);
+    }
+
+    // The conversion previously done by BallGame and RoundelCardboardDetection
+    private static BufferedImage pngRoundTrip(Mat frame) throws IOException {
+        MatOfByte buffer = new MatOfByte();
+        Imgcodecs.imencode(".png", frame, buffer);
+        return ImageIO.read(new ByteArrayInputStream(buffer.toArray()));
+    }
+}
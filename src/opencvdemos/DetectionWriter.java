@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes per-frame detections as CSV (one row per detection) or JSON (one
+ * object per frame and line).
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class DetectionWriter implements Closeable {
+
+    /**
+     * Output format.
+     */
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    private final Writer out;
+    private final Format format;
+    // Frame being written
+    private long frame;
+    private String source;
+    private int detections;
+
+    /**
+     * @param out where to write, closed with this writer
+     * @param format output format
+     * @throws IOException if the header cannot be written
+     */
+    public DetectionWriter(Writer out, Format format) throws IOException {
+        this.out = out;
+        this.format = format;
+        if (format == Format.CSV) {
+            out.write("frame,source,pipeline,x,y,width,height,text\n");
+        }
+    }
+
+    /**
+     * Starts the detections of a frame.
+     *
+     * @param frame frame number, starting at 0
+     * @param source file or stream the frame comes from
+     */
+    public void beginFrame(long frame, String source) throws IOException {
+        this.frame = frame;
+        this.source = source;
+        this.detections = 0;
+        if (this.format == Format.JSON) {
+            this.out.write("{\"frame\":" + frame + ",\"source\":" + jsonString(source) + ",\"detections\":[");
+        }
+    }
+
+    /**
+     * Writes one detection of the current frame.
+     *
+     * @param pipeline name of the pipeline that found it
+     * @param x left edge, or center x for points
+     * @param y top edge, or center y for points
+     * @param width width, 0 for points
+     * @param height height, 0 for points
+     * @param text decoded text, or null
+     */
+    public void write(String pipeline, double x, double y, double width, double height, String text) throws IOException {
+        if (this.format == Format.CSV) {
+            this.out.write(this.frame + "," + csvString(this.source) + "," + pipeline + ","
+                    + x + "," + y + "," + width + "," + height + ","
+                    + (text == null ? "" : csvString(text)) + "\n");
+        }
+        else {
+            this.out.write((this.detections > 0 ? "," : "")
+                    + "{\"pipeline\":" + jsonString(pipeline)
+                    + ",\"x\":" + x + ",\"y\":" + y + ",\"width\":" + width + ",\"height\":" + height
+                    + (text == null ? "" : ",\"text\":" + jsonString(text)) + "}");
+        }
+        this.detections++;
+    }
+
+    /**
+     * Ends the detections of the current frame.
+     */
+    public void endFrame() throws IOException {
+        if (this.format == Format.JSON) {
+            this.out.write("]}\n");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    private static String csvString(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.Mat;
+
+/**
+ * A captured frame travelling through a {@link FramePipeline} or a
+ * {@link CaptureManager}.
+ *
+ * Frames and their Mats are recycled by the pipeline once rendered or
+ * dropped, so stages must not keep references to them.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class Frame {
+
+    // The image, processed in place
+    private final Mat mat = new Mat();
+    // System.nanoTime() when the frame was captured
+    private long captureNanos;
+    // Capture order, starting at 0
+    private long sequence;
+    // Id of the video source, 0 for a single source
+    private int source;
+
+    public Mat getMat() {
+        return this.mat;
+    }
+
+    public long getCaptureNanos() {
+        return this.captureNanos;
+    }
+
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    public int getSource() {
+        return this.source;
+    }
+
+    void captured(long sequence, long captureNanos) {
+        captured(0, sequence, captureNanos);
+    }
+
+    void captured(int source, long sequence, long captureNanos) {
+        this.source = source;
+        this.sequence = sequence;
+        this.captureNanos = captureNanos;
+    }
+
+    void release() {
+        this.mat.release();
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Capture, process and render stages running on their own threads.
+ *
+ * The stages are joined by bounded {@link FrameQueue}s, so a slow processing
+ * or render stage drops frames instead of stalling the capture. Frames are
+ * recycled once rendered or dropped.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class FramePipeline {
+
+    /**
+     * Fills a frame from the video source. Runs on the capture thread.
+     */
+    public interface Grabber {
+        /**
+         * @param frame the frame to fill
+         * @return false when the source has no more frames
+         */
+        boolean grab(Frame frame);
+    }
+
+    /**
+     * Processes a frame in place. Runs on the processing thread.
+     */
+    public interface Processor {
+        void process(Frame frame);
+    }
+
+    /**
+     * Displays a processed frame. Runs on the render thread.
+     */
+    public interface Renderer {
+        void render(Frame frame);
+    }
+
+    // How long the stage threads wait for a frame before checking for stop
+    private static final long POLL_MILLIS = 100;
+
+    private final Grabber grabber;
+    private final Processor processor;
+    private final Renderer renderer;
+    // Queues between capture and processing, and processing and rendering
+    private final FrameQueue<Frame> captured;
+    private final FrameQueue<Frame> processed;
+    // Frames ready to be captured into again
+    private final ConcurrentLinkedQueue<Frame> free = new ConcurrentLinkedQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+
+    // Statistics
+    private final AtomicLong capturedFrames = new AtomicLong();
+    private final AtomicLong renderedFrames = new AtomicLong();
+    // Optional stage timers
+    private volatile PipelineMetrics metrics;
+
+    /**
+     * @param grabber the capture stage
+     * @param processor the processing stage
+     * @param renderer the render stage
+     * @param queueCapacity capacity of each queue between stages
+     * @param policy what to drop when a queue is full
+     */
+    public FramePipeline(Grabber grabber, Processor processor, Renderer renderer,
+            int queueCapacity, FrameQueue.OverflowPolicy policy) {
+        this.grabber = grabber;
+        this.processor = processor;
+        this.renderer = renderer;
+        this.captured = new FrameQueue<>(queueCapacity, policy);
+        this.processed = new FrameQueue<>(queueCapacity, policy);
+    }
+
+    /**
+     * Times the capture and render stages, and counts rendered, dropped and
+     * failed frames. Call before {@link #start()}.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts the stage threads.
+     */
+    public void start() {
+        this.running = true;
+        this.threads.add(new Thread(this::captureLoop, "capture"));
+        this.threads.add(new Thread(this::processLoop, "process"));
+        this.threads.add(new Thread(this::renderLoop, "render"));
+        for (Thread thread : this.threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the stage threads and releases the frames.
+     *
+     * @param timeout how long to wait for each thread
+     * @param unit unit of the timeout
+     * @return true if every thread ended, so the video source and any Mats
+     * used by the stages can be released safely
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        this.running = false;
+        boolean stopped = true;
+        for (Thread thread : this.threads) {
+            thread.join(unit.toMillis(timeout));
+            stopped &= !thread.isAlive();
+        }
+        this.threads.clear();
+        if (stopped) {
+            List<Frame> frames = new ArrayList<>(this.free);
+            this.free.clear();
+            this.captured.drainTo(frames);
+            this.processed.drainTo(frames);
+            for (Frame frame : frames) {
+                frame.release();
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * @return true while the stage threads are running, until stopped or the
+     * source ends or fails to read
+     */
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    private void captureLoop() {
+        while (this.running) {
+            Frame frame = this.free.poll();
+            if (frame == null) {
+                frame = new Frame();
+            }
+            long start = System.nanoTime();
+            try {
+                if (!this.grabber.grab(frame)) {
+                    // The source ended; the frames still queued are not shown
+                    this.free.add(frame);
+                    this.running = false;
+                    break;
+                }
+            }
+            catch (Exception e) {
+                // log the error; a source that fails to read cannot go on
+                System.err.println("Exception during the image capture: " + e);
+                if (this.metrics != null) {
+                    this.metrics.error();
+                }
+                this.free.add(frame);
+                this.running = false;
+                break;
+            }
+            long now = System.nanoTime();
+            if (this.metrics != null) {
+                this.metrics.record(PipelineMetrics.Stage.CAPTURE, start);
+            }
+            frame.captured(this.capturedFrames.getAndIncrement(), now);
+            dropped(this.captured.offer(frame));
+        }
+    }
+
+    private void processLoop() {
+        try {
+            while (this.running) {
+                Frame frame = this.captured.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    this.processor.process(frame);
+                    dropped(this.processed.offer(frame));
+                }
+                catch (Exception e) {
+                    // log the error
+                    System.err.println("Exception during the frame elaboration: " + e);
+                    if (this.metrics != null) {
+                        this.metrics.error();
+                    }
+                    recycle(frame);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void renderLoop() {
+        try {
+            while (this.running) {
+                Frame frame = this.processed.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    long start = System.nanoTime();
+                    this.renderer.render(frame);
+                    this.renderedFrames.incrementAndGet();
+                    if (this.metrics != null) {
+                        this.metrics.record(PipelineMetrics.Stage.RENDER, start);
+                        this.metrics.frameRendered(System.nanoTime() - frame.getCaptureNanos());
+                    }
+                }
+                catch (Exception e) {
+                    // log the error
+                    System.err.println("Exception while rendering frame: " + e);
+                    if (this.metrics != null) {
+                        this.metrics.error();
+                    }
+                }
+                recycle(frame);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dropped(Frame frame) {
+        if (frame != null && this.metrics != null) {
+            this.metrics.frameDropped();
+        }
+        recycle(frame);
+    }
+
+    private void recycle(Frame frame) {
+        if (frame != null) {
+            this.free.add(frame);
+        }
+    }
+
+    /**
+     * @return number of frames read from the source
+     */
+    public long getCapturedFrames() {
+        return this.capturedFrames.get();
+    }
+
+    /**
+     * @return number of frames displayed
+     */
+    public long getRenderedFrames() {
+        return this.renderedFrames.get();
+    }
+
+    /**
+     * @return number of frames dropped between stages
+     */
+    public long getDroppedFrames() {
+        return this.captured.getDroppedCount() + this.processed.getDroppedCount();
+    }
+}
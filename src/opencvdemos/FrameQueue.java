@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer joining two pipeline stages.
+ *
+ * Offering never blocks: when the buffer is full either the oldest element
+ * or the offered one is dropped, depending on the overflow policy. The
+ * dropped element is handed back to the caller so it can be recycled.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ * @param <T> the element type
+ */
+public class FrameQueue<T> {
+
+    /**
+     * What to drop when an element is offered to a full queue.
+     */
+    public enum OverflowPolicy {
+        // Keep the newest frames, e.g. for display
+        DROP_OLDEST,
+        // Keep the frames already queued
+        DROP_NEWEST
+    }
+
+    private final Object[] items;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = this.lock.newCondition();
+    // Index of the oldest element and number of elements
+    private int head, count;
+    // Number of elements dropped so far
+    private long dropped;
+
+    /**
+     * @param capacity maximum number of queued elements
+     * @param policy what to drop when the queue is full
+     */
+    public FrameQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.items = new Object[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Queues an element without blocking.
+     *
+     * @param item the element to queue
+     * @return the element dropped to make room (which is the given element
+     * itself under DROP_NEWEST), or null if nothing was dropped
+     */
+    @SuppressWarnings("unchecked")
+    public T offer(T item) {
+        this.lock.lock();
+        try {
+            T droppedItem = null;
+            if (this.count == this.items.length) {
+                this.dropped++;
+                if (this.policy == OverflowPolicy.DROP_NEWEST) {
+                    return item;
+                }
+                droppedItem = (T) this.items[this.head];
+                this.items[this.head] = null;
+                this.head = (this.head + 1) % this.items.length;
+                this.count--;
+            }
+            this.items[(this.head + this.count) % this.items.length] = item;
+            this.count++;
+            this.notEmpty.signal();
+            return droppedItem;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the oldest queued element and removes it.
+     *
+     * @param timeout how long to wait
+     * @param unit unit of the timeout
+     * @return the element, or null if none arrived in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return removeHead();
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every queued element into the given list.
+     *
+     * @param to the list receiving the elements, oldest first
+     */
+    public void drainTo(List<? super T> to) {
+        this.lock.lock();
+        try {
+            while (this.count > 0) {
+                to.add(removeHead());
+            }
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queued elements
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of elements dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        this.lock.lock();
+        try {
+            return this.dropped;
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeHead() {
+        T item = (T) this.items[this.head];
+        this.items[this.head] = null;
+        this.head = (this.head + 1) % this.items.length;
+        this.count--;
+        return item;
+    }
+}
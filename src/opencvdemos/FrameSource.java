@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.File;
+import java.io.IOException;
+import org.opencv.core.Mat;
+
+/**
+ * Where frames come from: a camera, a video file, a directory of images, a
+ * raw recording or a synthetic generator.
+ *
+ * Recorded and generated sources can be replayed at their frame rate, as a
+ * camera would deliver them, or as fast as they can be read, for throughput
+ * tests. Live cameras are paced by the device either way.
+ *
+ * Sources are read from one thread at a time.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public interface FrameSource extends FramePipeline.Grabber {
+
+    /**
+     * How fast frames are handed out.
+     */
+    enum Pacing {
+        // At the frame rate of the source
+        REAL_TIME,
+        // As soon as they are read
+        AS_FAST_AS_POSSIBLE
+    }
+
+    /**
+     * @return a short name, e.g. for metrics and output
+     */
+    String getName();
+
+    /**
+     * Reads the next frame, waiting for its time under real-time pacing.
+     *
+     * @param frame the Mat to fill, reallocated if needed
+     * @return false when the source has no more frames
+     */
+    boolean read(Mat frame);
+
+    @Override
+    default boolean grab(Frame frame) {
+        return read(frame.getMat());
+    }
+
+    /**
+     * @return frames per second, 0 if unknown
+     */
+    double getFrameRate();
+
+    void setPacing(Pacing pacing);
+
+    /**
+     * Releases the device, file or buffers.
+     */
+    void release();
+
+    /**
+     * Opens a source from its description:
+     * <ul>
+     * <li>camera:N, the camera with index N</li>
+     * <li>synthetic:WxH[:FRAMES], moving blobs and a QR code, endless unless
+     * a frame count is given</li>
+     * <li>images:DIR, or the path of a directory, its images in name order</li>
+     * <li>raw:PATH, or a path ending in .raw, a {@link RawFrameRecorder}
+     * recording</li>
+     * <li>file:PATH, or any other path, a video file</li>
+     * </ul>
+     *
+     * @param spec the description
+     * @return the source, with real-time pacing
+     * @throws IOException if the source cannot be opened
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    static FrameSource open(String spec) throws IOException {
+        int colon = spec.indexOf(':');
+        String kind = colon > 0 ? spec.substring(0, colon) : "";
+        String value = spec.substring(colon + 1);
+        try {
+            switch (kind) {
+                case "camera":
+                    return new VideoCaptureSource(Integer.parseInt(value));
+                case "synthetic": {
+                    String[] parts = value.split(":");
+                    String[] size = parts[0].split("x");
+                    if (size.length != 2 || parts.length > 2) {
+                        throw new IllegalArgumentException("Invalid frame source: " + spec);
+                    }
+                    return new SyntheticSource(Integer.parseInt(size[0]), Integer.parseInt(size[1]),
+                            parts.length == 2 ? Long.parseLong(parts[1]) : 0);
+                }
+                case "images":
+                    return new ImageDirectorySource(new File(value), ImageDirectorySource.DEFAULT_FRAME_RATE);
+                case "raw":
+                    return new RawFrameSource(new File(value));
+                case "file":
+                    return new VideoCaptureSource(value);
+                default:
+                    // A plain path, e.g. C:\video.avi
+                    if (new File(spec).isDirectory()) {
+                        return new ImageDirectorySource(new File(spec), ImageDirectorySource.DEFAULT_FRAME_RATE);
+                    }
+                    if (spec.endsWith(".raw")) {
+                        return new RawFrameSource(new File(spec));
+                    }
+                    return new VideoCaptureSource(spec);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid frame source: " + spec, e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Thresholds a BGR frame by an HSV range in a single pass, without
+ * converting it to HSV.
+ *
+ * Each BGR color, quantized to a few bits per channel, is looked up in a
+ * table telling whether it falls in the range. The table is built from the
+ * HSV value of the center of each quantization cell, the same way OpenCV
+ * converts 8-bit frames, and rebuilt only when the range changes.
+ *
+ * Unlike Core.inRange, a hue start above the hue stop selects a range
+ * that wraps around, e.g. 170-10 for reds.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class HsvLookupTable {
+
+    /**
+     * Default bits per channel: a 32x32x32 table.
+     */
+    public static final int DEFAULT_BITS = 5;
+
+    private final int bits;
+    private final int shift;
+    // 255 for the colors in the range, 0 otherwise, by quantized B, G and R
+    private final byte[] table;
+
+    // Remember: H ranges 0-180, S and V range 0-255
+    private int hueStart, saturationStart, valueStart;
+    private int hueStop = -1, saturationStop, valueStop;
+    private boolean dirty = true;
+
+    // Pixels of the frame and of the mask, grown as needed
+    private byte[] bgr = new byte[0];
+    private byte[] mask = new byte[0];
+
+    public HsvLookupTable() {
+        this(DEFAULT_BITS);
+    }
+
+    /**
+     * @param bits bits kept per channel, 4 to 6
+     */
+    public HsvLookupTable(int bits) {
+        if (bits < 4 || bits > 6) {
+            throw new IllegalArgumentException("Invalid lookup table bits: " + bits);
+        }
+        this.bits = bits;
+        this.shift = 8 - bits;
+        this.table = new byte[1 << (3 * bits)];
+    }
+
+    /**
+     * Sets the HSV range; the table is rebuilt on the next frame if it
+     * changed.
+     */
+    public void setRange(int hueStart, int saturationStart, int valueStart,
+            int hueStop, int saturationStop, int valueStop) {
+        if (hueStart != this.hueStart || saturationStart != this.saturationStart || valueStart != this.valueStart
+                || hueStop != this.hueStop || saturationStop != this.saturationStop || valueStop != this.valueStop) {
+            this.hueStart = hueStart;
+            this.saturationStart = saturationStart;
+            this.valueStart = valueStart;
+            this.hueStop = hueStop;
+            this.saturationStop = saturationStop;
+            this.valueStop = valueStop;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Computes the mask of a frame.
+     *
+     * @param frame a BGR frame, 8 bits per channel
+     * @param dst the mask, 255 where the color is in the range, reallocated
+     * if needed
+     */
+    public void apply(Mat frame, Mat dst) {
+        if (frame.type() != CvType.CV_8UC3) {
+            throw new IllegalArgumentException("Expected a BGR frame: " + CvType.typeToString(frame.type()));
+        }
+        if (this.dirty) {
+            build();
+        }
+        int pixels = frame.rows() * frame.cols();
+        if (this.mask.length < pixels) {
+            this.bgr = new byte[pixels * 3];
+            this.mask = new byte[pixels];
+        }
+        // get and put copy row by row if the frame is a region; the arrays
+        // may be longer than needed, only the Mat's own bytes are copied
+        frame.get(0, 0, this.bgr);
+        lookUp(this.bgr, this.mask, pixels);
+        dst.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+        dst.put(0, 0, this.mask);
+    }
+
+    private void lookUp(byte[] bgr, byte[] mask, int pixels) {
+        byte[] lut = this.table;
+        int s = this.shift, gShift = this.bits - s, bShift = 2 * this.bits - s;
+        int gMask = ((1 << this.bits) - 1) << this.bits, bMask = gMask << this.bits;
+        for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+            int b = bgr[j] & 0xff, g = bgr[j + 1] & 0xff, r = bgr[j + 2] & 0xff;
+            mask[i] = lut[((b << bShift) & bMask) | ((g << gShift) & gMask) | (r >> s)];
+        }
+    }
+
+    private void build() {
+        int levels = 1 << this.bits;
+        int half = 1 << (this.shift - 1);
+        boolean wraps = this.hueStart > this.hueStop;
+        for (int b = 0; b < levels; b++) {
+            for (int g = 0; g < levels; g++) {
+                for (int r = 0; r < levels; r++) {
+                    int[] hsv = toHsv((b << this.shift) + half, (g << this.shift) + half, (r << this.shift) + half);
+                    boolean hue = wraps ? hsv[0] >= this.hueStart || hsv[0] <= this.hueStop
+                            : hsv[0] >= this.hueStart && hsv[0] <= this.hueStop;
+                    boolean inside = hue
+                            && hsv[1] >= this.saturationStart && hsv[1] <= this.saturationStop
+                            && hsv[2] >= this.valueStart && hsv[2] <= this.valueStop;
+                    this.table[(b << (2 * this.bits)) | (g << this.bits) | r] = inside ? (byte) 255 : 0;
+                }
+            }
+        }
+        this.dirty = false;
+    }
+
+    // HSV of an 8-bit color, as Imgproc.COLOR_BGR2HSV computes it
+    static int[] toHsv(int b, int g, int r) {
+        int v = Math.max(b, Math.max(g, r));
+        int diff = v - Math.min(b, Math.min(g, r));
+        int s = v == 0 ? 0 : (int) Math.round(255.0 * diff / v);
+        double h = 0;
+        if (diff > 0) {
+            if (v == r) {
+                h = 60.0 * (g - b) / diff;
+            }
+            else if (v == g) {
+                h = 120 + 60.0 * (b - r) / diff;
+            }
+            else {
+                h = 240 + 60.0 * (r - g) / diff;
+            }
+        }
+        int hue = (int) Math.round(h / 2);
+        if (hue < 0) {
+            hue += 180;
+        }
+        return new int[]{hue >= 180 ? hue - 180 : hue, s, v};
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * The images of a directory, in name order, as frames. Unreadable images are
+ * skipped.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class ImageDirectorySource extends PacedFrameSource {
+
+    /**
+     * Frame rate of real-time pacing when none is given.
+     */
+    public static final double DEFAULT_FRAME_RATE = 30;
+
+    private final File directory;
+    private final List<File> images;
+    private final double frameRate;
+    // Next image to read, and the last one read
+    private int next;
+    private File current;
+
+    /**
+     * @param directory the directory
+     * @param frameRate frames per second under real-time pacing
+     * @throws IOException if the directory has no images
+     */
+    public ImageDirectorySource(File directory, double frameRate) throws IOException {
+        this.directory = directory;
+        this.images = QRBatchDecoder.listImages(directory);
+        if (this.images.isEmpty()) {
+            throw new IOException("No images in: " + directory);
+        }
+        this.frameRate = frameRate;
+    }
+
+    @Override
+    protected boolean readFrame(Mat frame) {
+        while (this.next < this.images.size()) {
+            this.current = this.images.get(this.next++);
+            Mat image = Imgcodecs.imread(this.current.getPath());
+            try {
+                if (!image.empty()) {
+                    image.copyTo(frame);
+                    return true;
+                }
+                System.err.println("Cannot read image: " + this.current);
+            }
+            finally {
+                image.release();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the image of the last frame read, or null before the first
+     */
+    public File getCurrentFile() {
+        return this.current;
+    }
+
+    @Override
+    public String getName() {
+        return this.directory.getName();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return this.frameRate;
+    }
+
+    @Override
+    public void release() {
+        // Nothing held between frames
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Box filters of a gray image at a constant cost per pixel, whatever the
+ * kernel size, from one integral image (summed-area table) per frame.
+ *
+ * The table is built over the image padded by replicating its edges, as
+ * OpenCV's BORDER_REPLICATE does, so the box blur matches Imgproc.blur
+ * with that border and the threshold matches Imgproc.adaptiveThreshold
+ * with ADAPTIVE_THRESH_MEAN_C. Means are rounded to the nearest level,
+ * as both do in the OpenCV 3.0 the project ships. The threshold can also
+ * blur each pixel before comparing it with its block mean, both from the
+ * same table.
+ * Kernel sizes must be odd and no larger than the one the table was
+ * computed for.
+ *
+ * Not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class IntegralImage {
+
+    // Pixels of the image and of the last output, grown as needed
+    private byte[] pixels = new byte[0];
+    private byte[] output = new byte[0];
+    // Sums of the padded image, one row and column of zeros first. Sums past
+    // 2^31 wrap around, but the difference of four of them is still exact
+    // as long as the box itself sums below 2^31.
+    private int[] sums = new int[0];
+    private int rows, cols, pad, stride;
+
+    /**
+     * Computes the table of a frame.
+     *
+     * @param gray a CV_8UC1 image
+     * @param maxKernelSize largest kernel the table will be used for, odd
+     */
+    public void compute(Mat gray, int maxKernelSize) {
+        if (gray.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Expected a gray image: " + CvType.typeToString(gray.type()));
+        }
+        checkKernel(maxKernelSize);
+        int size = gray.rows() * gray.cols();
+        if (this.pixels.length < size) {
+            this.pixels = new byte[size];
+        }
+        // get copies row by row if the image is a region; the array may be
+        // longer than needed, only the Mat's own bytes are copied
+        gray.get(0, 0, this.pixels);
+        byte[] pixels = this.pixels;
+        int rows = gray.rows();
+        int cols = gray.cols();
+        this.rows = rows;
+        this.cols = cols;
+        this.pad = maxKernelSize / 2;
+        this.stride = cols + 2 * this.pad + 1;
+        int paddedRows = rows + 2 * this.pad;
+        if (this.sums.length < (paddedRows + 1) * this.stride) {
+            this.sums = new int[(paddedRows + 1) * this.stride];
+        }
+        int[] s = this.sums;
+        for (int x = 0; x < this.stride; x++) {
+            s[x] = 0;
+        }
+        for (int py = 0; py < paddedRows; py++) {
+            int y = Math.max(0, Math.min(rows - 1, py - this.pad));
+            int src = y * cols;
+            int above = py * this.stride;
+            int here = above + this.stride;
+            s[here] = 0;
+            int rowSum = 0;
+            int k = 1;
+            // Left edge replicated, the row, the right edge replicated
+            int left = pixels[src] & 0xff;
+            for (int i = 0; i < this.pad; i++, k++) {
+                rowSum += left;
+                s[here + k] = s[above + k] + rowSum;
+            }
+            for (int x = 0; x < cols; x++, k++) {
+                rowSum += pixels[src + x] & 0xff;
+                s[here + k] = s[above + k] + rowSum;
+            }
+            int right = pixels[src + cols - 1] & 0xff;
+            for (int i = 0; i < this.pad; i++, k++) {
+                rowSum += right;
+                s[here + k] = s[above + k] + rowSum;
+            }
+        }
+    }
+
+    /**
+     * Same as Imgproc.blur with a square kernel and BORDER_REPLICATE.
+     *
+     * @param kernelSize kernel width and height, odd
+     * @param dst the output, reallocated if needed
+     */
+    public void boxBlur(int kernelSize, Mat dst) {
+        checkSize(kernelSize);
+        byte[] out = output();
+        for (int y = 0; y < this.rows; y++) {
+            int row = y * this.cols;
+            for (int x = 0; x < this.cols; x++) {
+                out[row + x] = (byte) boxMean(x, y, kernelSize);
+            }
+        }
+        put(dst);
+    }
+
+    /**
+     * Same as Imgproc.adaptiveThreshold with ADAPTIVE_THRESH_MEAN_C and
+     * THRESH_BINARY: maxValue where the pixel is above the mean of its block
+     * minus c, 0 elsewhere.
+     *
+     * @param maxValue value of the pixels above the threshold
+     * @param blockSize block width and height, odd
+     * @param c subtracted from the mean
+     * @param dst the output, reallocated if needed
+     */
+    public void meanThreshold(double maxValue, int blockSize, double c, Mat dst) {
+        meanThreshold(maxValue, blockSize, 1, c, dst);
+    }
+
+    /**
+     * Same as {@link #meanThreshold(double, int, double, Mat)}, but each
+     * pixel is first box blurred, as {@link #boxBlur(int, Mat)} would, to
+     * remove some noise. The blur and the block mean come from the same
+     * table, so the blur costs no second pass over the image.
+     *
+     * @param maxValue value of the pixels above the threshold
+     * @param blockSize block width and height, odd
+     * @param blurSize blur kernel width and height, odd; 1 for none
+     * @param c subtracted from the mean
+     * @param dst the output, reallocated if needed
+     */
+    public void meanThreshold(double maxValue, int blockSize, int blurSize, double c, Mat dst) {
+        checkSize(blockSize);
+        checkSize(blurSize);
+        byte[] out = output();
+        // As OpenCV: src - mean > -ceil(c), with the mean rounded
+        int delta = (int) Math.ceil(c);
+        byte high = (byte) Math.max(0, Math.min(255, Math.round(maxValue)));
+        for (int y = 0; y < this.rows; y++) {
+            int row = y * this.cols;
+            for (int x = 0; x < this.cols; x++) {
+                int value = blurSize == 1 ? this.pixels[row + x] & 0xff : boxMean(x, y, blurSize);
+                out[row + x] = value - boxMean(x, y, blockSize) > -delta ? high : 0;
+            }
+        }
+        put(dst);
+    }
+
+    // Mean of the kernel centered on a pixel, rounded
+    private int boxMean(int x, int y, int kernelSize) {
+        int r = kernelSize / 2;
+        int top = (y + this.pad - r) * this.stride + x + this.pad - r;
+        int bottom = top + kernelSize * this.stride;
+        int sum = this.sums[bottom + kernelSize] - this.sums[bottom] - this.sums[top + kernelSize] + this.sums[top];
+        long area = (long) kernelSize * kernelSize;
+        // Odd areas never tie, so this rounds as OpenCV does
+        return (int) ((2 * sum + area) / (2 * area));
+    }
+
+    private byte[] output() {
+        if (this.output.length < this.rows * this.cols) {
+            this.output = new byte[this.rows * this.cols];
+        }
+        return this.output;
+    }
+
+    private void put(Mat dst) {
+        dst.create(this.rows, this.cols, CvType.CV_8UC1);
+        dst.put(0, 0, this.output);
+    }
+
+    private void checkSize(int kernelSize) {
+        checkKernel(kernelSize);
+        if (kernelSize / 2 > this.pad) {
+            throw new IllegalArgumentException("Kernel larger than the integral image was computed for: " + kernelSize);
+        }
+    }
+
+    private static void checkKernel(int kernelSize) {
+        if (kernelSize < 1 || kernelSize % 2 == 0) {
+            throw new IllegalArgumentException("Invalid kernel size: " + kernelSize);
+        }
+    }
+}
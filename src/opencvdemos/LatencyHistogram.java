@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with log-linear buckets in
+ * the style of HdrHistogram: each power of two is split into 16 buckets, so
+ * reported percentiles are within about 6% of the recorded values.
+ *
+ * Recording is wait-free and safe from any thread. Reads take a
+ * {@link Snapshot}; snapshots taken at two points in time can be subtracted
+ * to get the distribution of just that interval.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class LatencyHistogram {
+
+    // Buckets per power of two, as a number of bits
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough buckets for any positive long
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts of a histogram at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.max = max;
+        }
+
+        /**
+         * @param earlier a snapshot of the same histogram taken before this one
+         * @return the values recorded between the two snapshots
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[this.counts.length];
+            int highest = -1;
+            for (int i = 0; i < diff.length; i++) {
+                diff[i] = this.counts[i] - earlier.counts[i];
+                if (diff[i] > 0) {
+                    highest = i;
+                }
+            }
+            // The exact maximum is only known overall, so bound it by the bucket
+            return new Snapshot(diff, highest < 0 ? 0 : Math.min(this.max, highestValue(highest)));
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return the value at the percentile, in ms, or 0 if empty
+         */
+        public double getPercentileMillis(double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(this.max, highestValue(i)) / 1e6;
+                }
+            }
+            return this.max / 1e6;
+        }
+
+        /**
+         * @return the largest recorded value, in ms
+         */
+        public double getMaxMillis() {
+            return this.max / 1e6;
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration, in ns; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(index(value));
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * @return the counts recorded so far; concurrent records may or may not
+     * be included
+     */
+    public Snapshot getSnapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new Snapshot(copy, this.max.get());
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // Position of the highest bit, then the next SUB_BUCKET_BITS bits
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + mantissa;
+    }
+
+    // Largest value that falls into the bucket
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + mantissa) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
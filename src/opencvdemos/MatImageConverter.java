@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Converts 8-bit OpenCV Mats to AWT images by copying the raw pixel bytes
+ * into the backing buffer of a BufferedImage.
+ *
+ * Each converter keeps one image and reuses it for as long as the size and
+ * channel count of the incoming frames do not change, so the returned image
+ * is overwritten by the next call. Use one converter per displayed stream.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class MatImageConverter {
+
+    // The image handed out on the last call
+    private BufferedImage image;
+    // Key of the current image
+    private int width, height, channels;
+
+    /**
+     * Copies the frame into the reused image of this converter.
+     *
+     * @param frame a CV_8UC1 or CV_8UC3 (BGR) Mat
+     * @return the converted image, valid until the next call
+     */
+    public BufferedImage convert(Mat frame) {
+        int channels = frame.channels();
+        if (this.image == null || this.width != frame.cols() || this.height != frame.rows() || this.channels != channels) {
+            this.image = createImage(frame);
+            this.width = frame.cols();
+            this.height = frame.rows();
+            this.channels = channels;
+        }
+        copy(frame, this.image);
+        return this.image;
+    }
+
+    /**
+     * Copies the frame into a newly allocated image.
+     *
+     * @param frame a CV_8UC1 or CV_8UC3 (BGR) Mat
+     * @return a new image that is not shared with any converter
+     */
+    public static BufferedImage toBufferedImage(Mat frame) {
+        BufferedImage img = createImage(frame);
+        copy(frame, img);
+        return img;
+    }
+
+    private static BufferedImage createImage(Mat frame) {
+        int type;
+        if (frame.type() == CvType.CV_8UC1) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+        }
+        else if (frame.type() == CvType.CV_8UC3) {
+            // OpenCV stores BGR, which is the byte order of TYPE_3BYTE_BGR
+            type = BufferedImage.TYPE_3BYTE_BGR;
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported Mat type: " + CvType.typeToString(frame.type()));
+        }
+        return new BufferedImage(frame.cols(), frame.rows(), type);
+    }
+
+    private static void copy(Mat frame, BufferedImage img) {
+        byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+        frame.get(0, 0, data);
+    }
+}
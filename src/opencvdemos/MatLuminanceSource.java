@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.LuminanceSource;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * ZXing luminance source backed by the bytes of a grayscale (CV_8UC1) Mat.
+ *
+ * The gray channel is used as is, so no RGB image or int[] pixel copy is
+ * needed before decoding. Cropping shares the underlying bytes; rotation
+ * produces a new rotated copy.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class MatLuminanceSource extends LuminanceSource {
+
+    // Luminance bytes, row-major
+    private final byte[] luminances;
+    // Size of the full luminance buffer
+    private final int dataWidth, dataHeight;
+    // Origin of the cropped area inside the buffer
+    private final int left, top;
+
+    /**
+     * Wraps the bytes of a grayscale Mat.
+     *
+     * @param gray a CV_8UC1 Mat
+     */
+    public MatLuminanceSource(Mat gray) {
+        this(gray, null);
+    }
+
+    /**
+     * Wraps the bytes of a grayscale Mat, reusing the given buffer when it has
+     * exactly the size of the Mat.
+     *
+     * @param gray a CV_8UC1 Mat
+     * @param buffer a buffer to copy the bytes into, or null
+     */
+    public MatLuminanceSource(Mat gray, byte[] buffer) {
+        super(gray.cols(), gray.rows());
+        if (gray.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Expected a CV_8UC1 Mat, got " + CvType.typeToString(gray.type()));
+        }
+        int size = gray.cols() * gray.rows();
+        this.luminances = buffer != null && buffer.length == size ? buffer : new byte[size];
+        gray.get(0, 0, this.luminances);
+        this.dataWidth = gray.cols();
+        this.dataHeight = gray.rows();
+        this.left = 0;
+        this.top = 0;
+    }
+
+    private MatLuminanceSource(byte[] luminances, int dataWidth, int dataHeight, int left, int top, int width, int height) {
+        super(width, height);
+        if (left + width > dataWidth || top + height > dataHeight) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        this.luminances = luminances;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.left = left;
+        this.top = top;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        if (y < 0 || y >= getHeight()) {
+            throw new IllegalArgumentException("Requested row is outside the image: " + y);
+        }
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        System.arraycopy(this.luminances, (y + this.top) * this.dataWidth + this.left, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        int width = getWidth();
+        int height = getHeight();
+
+        // If the caller asks for the entire underlying image, save the copy
+        if (width == this.dataWidth && height == this.dataHeight) {
+            return this.luminances;
+        }
+
+        byte[] matrix = new byte[width * height];
+        int inputOffset = this.top * this.dataWidth + this.left;
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(this.luminances, inputOffset, matrix, y * width, width);
+            inputOffset += this.dataWidth;
+        }
+        return matrix;
+    }
+
+    @Override
+    public boolean isCropSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource crop(int left, int top, int width, int height) {
+        return new MatLuminanceSource(this.luminances, this.dataWidth, this.dataHeight,
+                this.left + left, this.top + top, width, height);
+    }
+
+    @Override
+    public boolean isRotateSupported() {
+        return true;
+    }
+
+    @Override
+    public LuminanceSource rotateCounterClockwise() {
+        int width = getWidth();
+        int height = getHeight();
+        byte[] rotated = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int inputOffset = (y + this.top) * this.dataWidth + this.left;
+            for (int x = 0; x < width; x++) {
+                // (x, y) goes to (y, width - 1 - x) in an image of size height x width
+                rotated[(width - 1 - x) * height + y] = this.luminances[inputOffset + x];
+            }
+        }
+        return new MatLuminanceSource(rotated, height, width, 0, 0, height, width);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.opencv.core.Mat;
+
+/**
+ * Frame-scoped pool of Mats.
+ *
+ * Mats handed out during a frame stay live until {@link #recycle()} is called
+ * at the end of the frame; after that they are handed out again on the next
+ * frame, in the same order, so their native buffers are reused instead of
+ * being reallocated and left to the finalizer. Free Mats of a size that has
+ * not been asked for in a while (e.g. after a region of interest changed)
+ * are released.
+ *
+ * A pool is not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class MatPool {
+
+    // Free Mats of one size and type
+    private static class Bucket {
+        // Rows, cols and type
+        final long key;
+        final ArrayDeque<Mat> mats = new ArrayDeque<>();
+        // Frame in which this size was last asked for
+        long lastUsed;
+
+        Bucket(long key, long lastUsed) {
+            this.key = key;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    // Free Mats with a known size and type, one bucket per size; there are
+    // only a few sizes, so they are searched in order without boxing keys
+    private final List<Bucket> free = new ArrayList<>();
+    // Free Mats sized by the OpenCV call that fills them
+    private final ArrayDeque<Mat> freeUnsized = new ArrayDeque<>();
+    // Mats handed out during the current frame, in order, and whether each
+    // was asked for with a size
+    private final List<Mat> live = new ArrayList<>();
+    private boolean[] liveSized = new boolean[16];
+    private long frame;
+
+    // Frames a size may go unused before its free Mats are released
+    private static final long STALE_FRAMES = 30;
+
+    /**
+     * Hands out a Mat with the given size and type.
+     *
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param type OpenCV type, e.g. CvType.CV_8UC3
+     * @return a Mat that stays valid until the next {@link #recycle()}
+     */
+    public Mat acquire(int rows, int cols, int type) {
+        Bucket bucket = find(key(rows, cols, type));
+        Mat mat = null;
+        if (bucket != null) {
+            bucket.lastUsed = this.frame;
+            mat = bucket.mats.poll();
+        }
+        if (mat == null) {
+            mat = new Mat(rows, cols, type);
+        }
+        addLive(mat, true);
+        return mat;
+    }
+
+    /**
+     * Hands out a Mat whose size and type are set by the OpenCV call that uses
+     * it as output (e.g. VideoCapture.read or findContours hierarchy).
+     *
+     * @return a Mat that stays valid until the next {@link #recycle()}
+     */
+    public Mat acquire() {
+        Mat mat = this.freeUnsized.poll();
+        if (mat == null) {
+            mat = new Mat();
+        }
+        addLive(mat, false);
+        return mat;
+    }
+
+    /**
+     * Returns every Mat handed out since the last call to the pool. Call at
+     * the end of each frame.
+     */
+    public void recycle() {
+        for (int i = 0; i < this.live.size(); i++) {
+            Mat mat = this.live.get(i);
+            if (this.liveSized[i]) {
+                // Key by the current size, the Mat may have been reshaped
+                long key = key(mat.rows(), mat.cols(), mat.type());
+                Bucket bucket = find(key);
+                if (bucket == null) {
+                    bucket = new Bucket(key, this.frame);
+                    this.free.add(bucket);
+                }
+                bucket.mats.add(mat);
+            }
+            else {
+                this.freeUnsized.add(mat);
+            }
+        }
+        this.live.clear();
+
+        // Release the sizes no longer in use, with their bucket
+        this.frame++;
+        for (int i = this.free.size() - 1; i >= 0; i--) {
+            Bucket bucket = this.free.get(i);
+            if (this.frame - bucket.lastUsed > STALE_FRAMES) {
+                for (Mat mat : bucket.mats) {
+                    mat.release();
+                }
+                this.free.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Releases the native memory of every Mat in the pool, live or free.
+     */
+    public void release() {
+        recycle();
+        for (Bucket bucket : this.free) {
+            for (Mat mat : bucket.mats) {
+                mat.release();
+            }
+        }
+        for (Mat mat : this.freeUnsized) {
+            mat.release();
+        }
+        this.free.clear();
+        this.freeUnsized.clear();
+    }
+
+    /**
+     * @return number of Mats handed out during the current frame
+     */
+    public int getLiveCount() {
+        return this.live.size();
+    }
+
+    /**
+     * @return number of Mats waiting to be handed out again
+     */
+    public int getFreeCount() {
+        int count = this.freeUnsized.size();
+        for (Bucket bucket : this.free) {
+            count += bucket.mats.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return native bytes held by the Mats of this pool, live or free
+     */
+    public long getNativeBytes() {
+        long bytes = 0;
+        for (Mat mat : this.live) {
+            bytes += mat.total() * mat.elemSize();
+        }
+        for (Mat mat : this.freeUnsized) {
+            bytes += mat.total() * mat.elemSize();
+        }
+        for (Bucket bucket : this.free) {
+            for (Mat mat : bucket.mats) {
+                bytes += mat.total() * mat.elemSize();
+            }
+        }
+        return bytes;
+    }
+
+    private void addLive(Mat mat, boolean sized) {
+        int i = this.live.size();
+        if (i == this.liveSized.length) {
+            this.liveSized = Arrays.copyOf(this.liveSized, 2 * i);
+        }
+        this.liveSized[i] = sized;
+        this.live.add(mat);
+    }
+
+    private Bucket find(long key) {
+        for (int i = 0; i < this.free.size(); i++) {
+            Bucket bucket = this.free.get(i);
+            if (bucket.key == key) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    private static long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) cols << 16) | (type & 0xFFFF);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A chain of morphological operations with rectangular kernels.
+ *
+ * Kernels are built on first use and shared by the steps of the same size.
+ * The first step reads the source and every following one works in place on
+ * the destination. Repeated operations are passed to OpenCV as iterations,
+ * which it folds into a single pass with a larger rectangle; rectangular
+ * kernels are applied by OpenCV as separate row and column passes.
+ *
+ * A chain is described as "op:WxH[xN],...", where op is erode, dilate, open
+ * or close and N the number of iterations, e.g. "erode:12x12x2,dilate:24x24x2".
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class MorphologyStage {
+
+    /**
+     * Chain of the ball demo: grow the mask once. The demo used to erode and
+     * dilate the mask twice each, but every call read the mask again, so
+     * only the last dilation took effect; this keeps that output.
+     */
+    public static final String BALL_DEFAULT = "dilate:24x24";
+
+    /**
+     * The chain the ball demo's code described: remove small specks, then
+     * grow what is left. Cleaner masks, but smaller blobs are lost.
+     */
+    public static final String BALL_DENOISE = "erode:12x12x2,dilate:24x24x2";
+
+    /**
+     * Morphological operations.
+     */
+    public enum Operation {
+        ERODE, DILATE, OPEN, CLOSE
+    }
+
+    private static class Step {
+        private final Operation operation;
+        private final Size size;
+        private final int iterations;
+
+        Step(Operation operation, Size size, int iterations) {
+            this.operation = operation;
+            this.size = size;
+            this.iterations = iterations;
+        }
+    }
+
+    // Default anchor, the kernel center
+    private static final Point ANCHOR = new Point(-1, -1);
+
+    private final List<Step> steps = new ArrayList<>();
+    // Kernels by size, shared between steps
+    private final Map<Size, Mat> kernels = new HashMap<>();
+
+    /**
+     * Appends an operation to the chain.
+     *
+     * @param operation the operation
+     * @param width kernel width
+     * @param height kernel height
+     * @param iterations times the operation is applied
+     * @return this stage
+     */
+    public MorphologyStage add(Operation operation, int width, int height, int iterations) {
+        if (width < 1 || height < 1 || iterations < 1) {
+            throw new IllegalArgumentException("Invalid morphology step: " + width + "x" + height + "x" + iterations);
+        }
+        this.steps.add(new Step(operation, new Size(width, height), iterations));
+        return this;
+    }
+
+    private Mat kernel(Size size) {
+        Mat kernel = this.kernels.get(size);
+        if (kernel == null) {
+            kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, size);
+            this.kernels.put(size, kernel);
+        }
+        return kernel;
+    }
+
+    /**
+     * Builds a chain from its description.
+     *
+     * @param spec e.g. "erode:12x12x2,dilate:24x24x2"; empty for no operation
+     * @return the stage
+     * @throws IllegalArgumentException if the description is invalid
+     */
+    public static MorphologyStage parse(String spec) {
+        MorphologyStage stage = new MorphologyStage();
+        for (String step : spec.split(",")) {
+            step = step.trim();
+            if (step.isEmpty()) {
+                continue;
+            }
+            String[] parts = step.split(":");
+            String[] sizes = parts.length == 2 ? parts[1].split("x") : new String[0];
+            if (sizes.length < 2 || sizes.length > 3) {
+                throw new IllegalArgumentException("Invalid morphology step: " + step);
+            }
+            try {
+                stage.add(Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)),
+                        Integer.parseInt(sizes[0].trim()), Integer.parseInt(sizes[1].trim()),
+                        sizes.length == 3 ? Integer.parseInt(sizes[2].trim()) : 1);
+            }
+            catch (IllegalArgumentException e) {
+                // Unknown operation or not a number
+                throw new IllegalArgumentException("Invalid morphology step: " + step, e);
+            }
+        }
+        return stage;
+    }
+
+    /**
+     * Returns the same chain for an image downscaled by the given factor,
+     * with kernels shrunk to match (at least 1x1).
+     *
+     * @param factor frame pixels per image pixel
+     * @return a new stage, with its own kernels
+     */
+    public MorphologyStage scaled(int factor) {
+        MorphologyStage stage = new MorphologyStage();
+        for (Step step : this.steps) {
+            stage.add(step.operation,
+                    Math.max(1, (int) Math.round(step.size.width / factor)),
+                    Math.max(1, (int) Math.round(step.size.height / factor)),
+                    step.iterations);
+        }
+        return stage;
+    }
+
+    /**
+     * Applies the chain.
+     *
+     * @param src the binary mask
+     * @param dst the result; may be src
+     */
+    public void apply(Mat src, Mat dst) {
+        Mat input = src;
+        for (Step step : this.steps) {
+            Mat kernel = kernel(step.size);
+            switch (step.operation) {
+                case ERODE:
+                    Imgproc.erode(input, dst, kernel, ANCHOR, step.iterations);
+                    break;
+                case DILATE:
+                    Imgproc.dilate(input, dst, kernel, ANCHOR, step.iterations);
+                    break;
+                case OPEN:
+                    Imgproc.morphologyEx(input, dst, Imgproc.MORPH_OPEN, kernel, ANCHOR, step.iterations);
+                    break;
+                case CLOSE:
+                    Imgproc.morphologyEx(input, dst, Imgproc.MORPH_CLOSE, kernel, ANCHOR, step.iterations);
+                    break;
+            }
+            input = dst;
+        }
+        if (input != dst) {
+            // Empty chain
+            src.copyTo(dst);
+        }
+    }
+
+    /**
+     * Releases the kernels; they are built again if the stage is used.
+     */
+    public void release() {
+        for (Mat kernel : this.kernels.values()) {
+            kernel.release();
+        }
+        this.kernels.clear();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.Arrays;
+
+/**
+ * Follows the objects of {@link ContourAnalysis} from frame to frame, giving
+ * each one an ID that stays the same while it is in view, and estimating its
+ * velocity.
+ *
+ * Each track runs a constant-velocity Kalman filter per axis. On every frame
+ * the tracks are predicted forward, then paired with the detections by
+ * nearest centroid: the closest pair within the gate first, then the next,
+ * until none is left. Unpaired detections start new tracks; tracks unpaired
+ * for a few frames in a row are dropped.
+ *
+ * Tracks are kept in primitive arrays that only grow, so a frame allocates
+ * nothing once the largest crowd has been seen. Pairing costs grow with the
+ * square of the objects, fine for a few dozen.
+ *
+ * Not thread safe; use one per processing thread.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class ObjectTracker {
+
+    private final double maxDistance;
+    private final int maxMisses;
+    // Variance of the acceleration, in (pixels per frame^2)^2
+    private final double processNoise;
+    // Variance of the measured centroids, in pixels^2
+    private final double measurementNoise;
+
+    private int nextId = 1;
+
+    // Per track: ID, position and velocity (pixels per frame), covariance of
+    // position and velocity (the same for both axes), last size, frames
+    // since the last detection and the detection paired in the last frame
+    private int count;
+    private int[] id = new int[16];
+    private double[] x = new double[16], y = new double[16], vx = new double[16], vy = new double[16];
+    private double[] p00 = new double[16], p01 = new double[16], p11 = new double[16];
+    private int[] width = new int[16], height = new int[16];
+    private int[] misses = new int[16];
+    private int[] detection = new int[16];
+
+    // Per detection of the last frame: the track paired, -1 if none
+    private int[] trackOf = new int[16];
+
+    /**
+     * Tracks with the defaults of the demos: a gate of 80 pixels, dropped
+     * after 5 missed frames.
+     */
+    public ObjectTracker() {
+        this(80, 5, 1, 4);
+    }
+
+    /**
+     * @param maxDistance farthest a detection can be from the predicted
+     * position of a track to be paired with it, in pixels
+     * @param maxMisses frames without a detection before a track is dropped
+     * @param processNoise variance of the acceleration, how freely objects
+     * change speed
+     * @param measurementNoise variance of the detected centroids, in pixels^2
+     */
+    public ObjectTracker(double maxDistance, int maxMisses, double processNoise, double measurementNoise) {
+        if (maxDistance <= 0 || maxMisses < 0 || processNoise <= 0 || measurementNoise <= 0) {
+            throw new IllegalArgumentException("Invalid tracker settings: " + maxDistance + ", " + maxMisses
+                    + ", " + processNoise + ", " + measurementNoise);
+        }
+        this.maxDistance = maxDistance;
+        this.maxMisses = maxMisses;
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+    }
+
+    /**
+     * Advances the tracks by one frame with its detections.
+     *
+     * @param objects the objects found in the frame
+     */
+    public void update(ContourAnalysis objects) {
+        int detections = objects.getCount();
+        if (this.trackOf.length < detections) {
+            this.trackOf = new int[Math.max(detections, this.trackOf.length * 2)];
+        }
+        Arrays.fill(this.trackOf, 0, detections, -1);
+        predict();
+        pair(objects, detections);
+
+        // Correct the paired tracks, age the others
+        for (int i = 0; i < this.count; i++) {
+            int d = this.detection[i];
+            if (d < 0) {
+                this.misses[i]++;
+                continue;
+            }
+            correct(i, objects.getCentroidX(d), objects.getCentroidY(d));
+            this.width[i] = objects.getRectWidth(d);
+            this.height[i] = objects.getRectHeight(d);
+            this.misses[i] = 0;
+        }
+
+        // Drop the tracks lost for too long, keeping the order of the others
+        int kept = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.misses[i] <= this.maxMisses) {
+                if (kept != i) {
+                    move(i, kept);
+                }
+                kept++;
+            }
+        }
+        this.count = kept;
+        for (int i = 0; i < this.count; i++) {
+            if (this.detection[i] >= 0) {
+                this.trackOf[this.detection[i]] = i;
+            }
+        }
+
+        // New tracks for the detections left over
+        for (int d = 0; d < detections; d++) {
+            if (this.trackOf[d] < 0) {
+                this.trackOf[d] = start(objects, d);
+            }
+        }
+    }
+
+    // Moves the tracks one frame ahead: x += v, P = F P F' + Q
+    private void predict() {
+        double q = this.processNoise;
+        for (int i = 0; i < this.count; i++) {
+            this.x[i] += this.vx[i];
+            this.y[i] += this.vy[i];
+            double a = this.p00[i], b = this.p01[i], c = this.p11[i];
+            this.p00[i] = a + 2 * b + c + q / 4;
+            this.p01[i] = b + c + q / 2;
+            this.p11[i] = c + q;
+            this.detection[i] = -1;
+        }
+    }
+
+    // Greedy nearest-centroid pairing within the gate
+    private void pair(ContourAnalysis objects, int detections) {
+        double gate = this.maxDistance * this.maxDistance;
+        while (true) {
+            int bestTrack = -1, bestDetection = -1;
+            double best = gate;
+            for (int i = 0; i < this.count; i++) {
+                if (this.detection[i] >= 0) {
+                    continue;
+                }
+                for (int d = 0; d < detections; d++) {
+                    if (this.trackOf[d] >= 0) {
+                        continue;
+                    }
+                    double dx = objects.getCentroidX(d) - this.x[i];
+                    double dy = objects.getCentroidY(d) - this.y[i];
+                    double distance = dx * dx + dy * dy;
+                    if (distance <= best) {
+                        best = distance;
+                        bestTrack = i;
+                        bestDetection = d;
+                    }
+                }
+            }
+            if (bestTrack < 0) {
+                return;
+            }
+            this.detection[bestTrack] = bestDetection;
+            this.trackOf[bestDetection] = bestTrack;
+        }
+    }
+
+    // Kalman update with a measured position, the same gain for both axes
+    private void correct(int i, double mx, double my) {
+        double a = this.p00[i], b = this.p01[i], c = this.p11[i];
+        double s = a + this.measurementNoise;
+        double k0 = a / s, k1 = b / s;
+        double ex = mx - this.x[i], ey = my - this.y[i];
+        this.x[i] += k0 * ex;
+        this.y[i] += k0 * ey;
+        this.vx[i] += k1 * ex;
+        this.vy[i] += k1 * ey;
+        this.p00[i] = (1 - k0) * a;
+        this.p01[i] = (1 - k0) * b;
+        this.p11[i] = c - k1 * b;
+    }
+
+    // Starts a track at a detection, at rest and with an unknown velocity
+    private int start(ContourAnalysis objects, int d) {
+        ensureCapacity(this.count + 1);
+        int i = this.count++;
+        this.id[i] = this.nextId++;
+        this.x[i] = objects.getCentroidX(d);
+        this.y[i] = objects.getCentroidY(d);
+        this.vx[i] = 0;
+        this.vy[i] = 0;
+        this.p00[i] = this.measurementNoise;
+        this.p01[i] = 0;
+        this.p11[i] = this.maxDistance * this.maxDistance / 4;
+        this.width[i] = objects.getRectWidth(d);
+        this.height[i] = objects.getRectHeight(d);
+        this.misses[i] = 0;
+        this.detection[i] = d;
+        return i;
+    }
+
+    private void move(int from, int to) {
+        this.id[to] = this.id[from];
+        this.x[to] = this.x[from];
+        this.y[to] = this.y[from];
+        this.vx[to] = this.vx[from];
+        this.vy[to] = this.vy[from];
+        this.p00[to] = this.p00[from];
+        this.p01[to] = this.p01[from];
+        this.p11[to] = this.p11[from];
+        this.width[to] = this.width[from];
+        this.height[to] = this.height[from];
+        this.misses[to] = this.misses[from];
+        this.detection[to] = this.detection[from];
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > this.id.length) {
+            int length = Math.max(size, this.id.length * 2);
+            this.id = Arrays.copyOf(this.id, length);
+            this.x = Arrays.copyOf(this.x, length);
+            this.y = Arrays.copyOf(this.y, length);
+            this.vx = Arrays.copyOf(this.vx, length);
+            this.vy = Arrays.copyOf(this.vy, length);
+            this.p00 = Arrays.copyOf(this.p00, length);
+            this.p01 = Arrays.copyOf(this.p01, length);
+            this.p11 = Arrays.copyOf(this.p11, length);
+            this.width = Arrays.copyOf(this.width, length);
+            this.height = Arrays.copyOf(this.height, length);
+            this.misses = Arrays.copyOf(this.misses, length);
+            this.detection = Arrays.copyOf(this.detection, length);
+        }
+    }
+
+    /**
+     * Drops every track; IDs keep counting.
+     */
+    public void clear() {
+        this.count = 0;
+    }
+
+    /**
+     * @return number of tracks, including those missed for a few frames
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    public int getId(int i) {
+        return this.id[i];
+    }
+
+    /**
+     * @return estimated x of the centroid, in frame coordinates
+     */
+    public double getX(int i) {
+        return this.x[i];
+    }
+
+    /**
+     * @return estimated y of the centroid, in frame coordinates
+     */
+    public double getY(int i) {
+        return this.y[i];
+    }
+
+    /**
+     * @return estimated x velocity, in pixels per frame
+     */
+    public double getVelocityX(int i) {
+        return this.vx[i];
+    }
+
+    /**
+     * @return estimated y velocity, in pixels per frame
+     */
+    public double getVelocityY(int i) {
+        return this.vy[i];
+    }
+
+    /**
+     * @return width of the last detection of the track
+     */
+    public int getWidth(int i) {
+        return this.width[i];
+    }
+
+    /**
+     * @return height of the last detection of the track
+     */
+    public int getHeight(int i) {
+        return this.height[i];
+    }
+
+    /**
+     * @return frames since the track was last detected, 0 if it was
+     * detected in the last frame
+     */
+    public int getMisses(int i) {
+        return this.misses[i];
+    }
+
+    /**
+     * @return index in the last {@link ContourAnalysis} of the detection
+     * paired with the track, -1 if it was missed
+     */
+    public int getDetection(int i) {
+        return this.detection[i];
+    }
+
+    /**
+     * @param d index of a detection of the last frame
+     * @return index of its track
+     */
+    public int getTrack(int d) {
+        return this.trackOf[d];
+    }
+}
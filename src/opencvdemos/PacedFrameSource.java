@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+
+/**
+ * Base of the recorded and generated sources: reads a frame, then holds it
+ * until its time under real-time pacing.
+ *
+ * Frames are due at their recorded time, if the source has one, or at a
+ * fixed period, counted from the first frame. A reader that falls well
+ * behind restarts the schedule instead of bursting to catch up, as a camera
+ * would.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public abstract class PacedFrameSource implements FrameSource {
+
+    // Lateness after which the schedule restarts
+    private static final long MAX_LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private Pacing pacing = Pacing.REAL_TIME;
+    // System.nanoTime() the schedule counts from, once started
+    private boolean started;
+    private long originNanos;
+    // Frames handed out since the schedule started
+    private long frames;
+
+    /**
+     * Reads the next frame, without waiting.
+     *
+     * @param frame the Mat to fill
+     * @return false when the source has no more frames
+     */
+    protected abstract boolean readFrame(Mat frame);
+
+    /**
+     * @return true for sources paced by a device, which are never held back
+     */
+    protected boolean isLive() {
+        return false;
+    }
+
+    /**
+     * @return recorded time of the frame just read, in ns from the first
+     * frame, or -1 to pace at the frame rate
+     */
+    protected long getTimestampNanos() {
+        return -1;
+    }
+
+    @Override
+    public final boolean read(Mat frame) {
+        if (!readFrame(frame)) {
+            return false;
+        }
+        if (this.pacing == Pacing.REAL_TIME && !isLive()) {
+            long offset = getTimestampNanos();
+            double rate = getFrameRate();
+            if (offset < 0 && rate > 0) {
+                offset = (long) (this.frames * 1e9 / rate);
+            }
+            if (offset >= 0) {
+                long now = System.nanoTime();
+                long due = this.originNanos + offset;
+                if (!this.started || now - due > MAX_LATE_NANOS) {
+                    // First frame, or too late to keep the schedule
+                    this.started = true;
+                    this.originNanos = now - offset;
+                }
+                else if (due > now) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(due - now);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        this.frames++;
+        return true;
+    }
+
+    @Override
+    public void setPacing(Pacing pacing) {
+        this.pacing = pacing;
+        this.started = false;
+    }
+
+    public Pacing getPacing() {
+        return this.pacing;
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Benchmarks every stage of the detection pipelines on fixed frames, without
+ * a camera.
+ *
+ * Frames are read from a directory of recorded images, or generated from a
+ * fixed seed at 640x480 and 1920x1080 (colored blobs plus a QR code). Each
+ * stage is warmed up, then timed over several iterations; the table reports
+ * the mean and best time per operation. Run with "ant benchmark".
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class PipelineBenchmark {
+
+    /**
+     * A benchmarked operation.
+     */
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    @Parameter(names = "--frames", description = "Directory of recorded frames (generated if omitted)")
+    private String framesDir;
+
+    @Parameter(names = "--warmup", description = "Warm-up time per stage, in ms")
+    private long warmupMillis = 1000;
+
+    @Parameter(names = "--time", description = "Time per measurement iteration, in ms")
+    private long iterationMillis = 500;
+
+    @Parameter(names = "--iterations", description = "Measurement iterations per stage")
+    private int iterations = 5;
+
+    @Parameter(names = "--filter", description = "Only run stages whose name matches this regex")
+    private String filter = ".*";
+
+    @Parameter(names = {"-h", "--help"}, help = true, description = "Show this help")
+    private boolean help;
+
+    // Keeps results alive so the JIT cannot drop the work
+    private long sink;
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+        PipelineBenchmark benchmark = new PipelineBenchmark();
+        JCommander commander = new JCommander(benchmark);
+        commander.setProgramName(PipelineBenchmark.class.getSimpleName());
+        try {
+            commander.parse(args);
+        }
+        catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            commander.usage();
+            System.exit(1);
+        }
+        if (benchmark.help) {
+            commander.usage();
+            return;
+        }
+
+        // load the native OpenCV library
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        benchmark.run();
+    }
+
+    private void run() throws Exception {
+        List<Mat> frames = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (this.framesDir != null) {
+            for (File file : QRBatchDecoder.listImages(new File(this.framesDir))) {
+                Mat frame = Imgcodecs.imread(file.getPath());
+                if (!frame.empty()) {
+                    frames.add(frame);
+                    names.add(file.getName());
+                }
+            }
+            if (frames.isEmpty()) {
+                throw new IllegalArgumentException("No readable frames in " + this.framesDir);
+            }
+        }
+        else {
+            frames.add(syntheticFrame(640, 480));
+            names.add("640x480");
+            frames.add(syntheticFrame(1920, 1080));
+            names.add("1920x1080");
+        }
+
+        System.out.printf("%-34s %-12s %12s %12s %10s%n", "Stage", "Frame", "Mean us/op", "Best us/op", "ops/s");
+        for (int i = 0; i < frames.size(); i++) {
+            runStages(names.get(i), frames.get(i));
+        }
+        runQRCodeStages();
+    }
+
+    private void runStages(String name, final Mat frame) throws Exception {
+        // Inputs of each stage, computed once with the demo settings
+        final Mat blurred = new Mat();
+        final Mat hsv = new Mat();
+        final Mat mask = new Mat();
+        final Mat morph = new Mat();
+        final Mat gray = new Mat();
+        final Mat scratch = new Mat();
+        final Mat drawn = new Mat();
+        final Scalar minValues = new Scalar(20, 60, 50);
+        final Scalar maxValues = new Scalar(50, 200, 255);
+        final Mat dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(24, 24));
+        final Mat erodeElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(12, 12));
+        Imgproc.blur(frame, blurred, new Size(7, 7));
+        Imgproc.cvtColor(blurred, hsv, Imgproc.COLOR_BGR2HSV);
+        Core.inRange(hsv, minValues, maxValues, mask);
+        Imgproc.dilate(mask, morph, dilateElement);
+        Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+
+        final MatImageConverter converter = new MatImageConverter();
+        final MatPool pool = new MatPool();
+        final BallDetector ballDetector = new BallDetector();
+        final RoundelDetector roundelDetector = new RoundelDetector();
+        final ContourAnalysis analysis = new ContourAnalysis();
+
+        bench("mat2Image PNG round trip", name, () -> {
+            MatOfByte buffer = new MatOfByte();
+            Imgcodecs.imencode(".png", frame, buffer);
+            this.sink += ImageIO.read(new ByteArrayInputStream(buffer.toArray())).getWidth();
+            buffer.release();
+        });
+        bench("mat2Image direct copy", name, () -> {
+            this.sink += converter.convert(frame).getWidth();
+        });
+        bench("blur + cvtColor HSV", name, () -> {
+            Imgproc.blur(frame, blurred, new Size(7, 7));
+            Imgproc.cvtColor(blurred, hsv, Imgproc.COLOR_BGR2HSV);
+        });
+        bench("inRange", name, () -> {
+            Core.inRange(hsv, minValues, maxValues, mask);
+        });
+        final HsvLookupTable colors = new HsvLookupTable();
+        colors.setRange(20, 60, 50, 50, 200, 255);
+        bench("HsvLookupTable (cvtColor + inRange)", name, () -> {
+            colors.apply(blurred, scratch);
+        });
+        bench("erode/dilate sequence", name, () -> {
+            Imgproc.erode(mask, scratch, erodeElement);
+            Imgproc.erode(mask, scratch, erodeElement);
+            Imgproc.dilate(mask, scratch, dilateElement);
+            Imgproc.dilate(mask, scratch, dilateElement);
+        });
+        final MorphologyStage morphology = MorphologyStage.parse(MorphologyStage.BALL_DEFAULT);
+        bench("MorphologyStage default chain", name, () -> {
+            morphology.apply(mask, scratch);
+        });
+        bench("findAndDrawObjects", name, () -> {
+            // Same work as BallGame.findAndDrawObjects
+            morph.copyTo(scratch);
+            frame.copyTo(drawn);
+            List<MatOfPoint> contours = new ArrayList<>();
+            Mat hierarchy = new Mat();
+            Imgproc.findContours(scratch, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+            if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
+                for (int idx = 0; idx >= 0; idx = (int) hierarchy.get(0, idx)[0]) {
+                    Imgproc.drawContours(drawn, contours, idx, new Scalar(250, 0, 0));
+                }
+            }
+            for (MatOfPoint contour : contours) {
+                contour.release();
+            }
+            hierarchy.release();
+        });
+        bench("contours + bounding rects", name, () -> {
+            morph.copyTo(scratch);
+            List<MatOfPoint> contours = new ArrayList<>();
+            Mat hierarchy = new Mat();
+            Imgproc.findContours(scratch, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            for (MatOfPoint contour : contours) {
+                Rect r = Imgproc.boundingRect(contour);
+                this.sink += r.x + r.width / 2;
+                contour.release();
+            }
+            hierarchy.release();
+        });
+        bench("ContourAnalysis + draw", name, () -> {
+            // One pass for drawing and bounding rects, as BallGame does now
+            morph.copyTo(scratch);
+            frame.copyTo(drawn);
+            analysis.analyze(scratch);
+            analysis.draw(drawn, new Scalar(250, 0, 0));
+            this.sink += analysis.getCount();
+        });
+        bench("BallDetector.detect", name, () -> {
+            this.sink += ballDetector.detect(frame, pool).size();
+            pool.recycle();
+        });
+        // The same detection on image pyramid levels
+        ballDetector.setScale(1);
+        bench("BallDetector.detect half scale", name, () -> {
+            this.sink += ballDetector.detect(frame, pool).size();
+            pool.recycle();
+        });
+        ballDetector.setScale(2);
+        bench("BallDetector.detect quarter scale", name, () -> {
+            this.sink += ballDetector.detect(frame, pool).size();
+            pool.recycle();
+        });
+        ballDetector.setRefine(true);
+        bench("BallDetector.detect quarter scale + refine", name, () -> {
+            this.sink += ballDetector.detect(frame, pool).size();
+            pool.recycle();
+        });
+        ballDetector.setRefine(false);
+        ballDetector.setScale(1);
+        ballDetector.setMode(BallDetector.Mode.BACKGROUND);
+        bench("BallDetector.detect background half scale", name, () -> {
+            this.sink += ballDetector.detect(frame, pool).size();
+            pool.recycle();
+        });
+        ballDetector.setMode(BallDetector.Mode.COLOR);
+        ballDetector.setScale(0);
+        bench("adaptiveThreshold", name, () -> {
+            Imgproc.adaptiveThreshold(gray, scratch, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 7);
+        });
+        // The tiled threshold must match the single call exactly
+        final TiledAdaptiveThreshold tiled = new TiledAdaptiveThreshold();
+        final Mat tiledOutput = new Mat();
+        Imgproc.adaptiveThreshold(gray, scratch, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 7);
+        tiled.apply(gray, tiledOutput, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 7);
+        Core.compare(scratch, tiledOutput, tiledOutput, Core.CMP_NE);
+        if (Core.countNonZero(tiledOutput) != 0) {
+            throw new IllegalStateException("TiledAdaptiveThreshold differs from adaptiveThreshold on " + name);
+        }
+        bench("TiledAdaptiveThreshold", name, () -> {
+            tiled.apply(gray, tiledOutput, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 7);
+        });
+        // The integral image mean threshold should match OpenCV's
+        final IntegralImage integral = new IntegralImage();
+        final Mat integralOutput = new Mat();
+        for (int blockSize : new int[]{7, 51}) {
+            Imgproc.adaptiveThreshold(gray, scratch, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY, blockSize, 7);
+            integral.compute(gray, blockSize);
+            integral.meanThreshold(255, blockSize, 7, integralOutput);
+            Core.compare(scratch, integralOutput, integralOutput, Core.CMP_NE);
+            int differences = Core.countNonZero(integralOutput);
+            if (differences != 0) {
+                System.out.printf("IntegralImage mean threshold %d differs from adaptiveThreshold on %d pixels of %s%n",
+                        blockSize, differences, name);
+            }
+            bench("adaptiveThreshold mean " + blockSize, name, () -> {
+                Imgproc.adaptiveThreshold(gray, scratch, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY, blockSize, 7);
+            });
+            bench("IntegralImage mean threshold " + blockSize, name, () -> {
+                integral.compute(gray, blockSize);
+                integral.meanThreshold(255, blockSize, 7, integralOutput);
+            });
+            // The 7x7 blur and the threshold from one table, as RoundelDetector does
+            bench("IntegralImage blur 7 + mean threshold " + blockSize, name, () -> {
+                integral.compute(gray, blockSize);
+                integral.meanThreshold(255, blockSize, 7, 7, integralOutput);
+            });
+        }
+        // The integral image box blur should match OpenCV's too
+        Imgproc.blur(gray, scratch, new Size(7, 7), new Point(-1, -1), Core.BORDER_REPLICATE);
+        integral.compute(gray, 7);
+        integral.boxBlur(7, integralOutput);
+        Core.compare(scratch, integralOutput, integralOutput, Core.CMP_NE);
+        int differences = Core.countNonZero(integralOutput);
+        if (differences != 0) {
+            System.out.printf("IntegralImage box blur differs from blur on %d pixels of %s%n", differences, name);
+        }
+        bench("blur 7", name, () -> {
+            Imgproc.blur(gray, scratch, new Size(7, 7), new Point(-1, -1), Core.BORDER_REPLICATE);
+        });
+        bench("IntegralImage box blur 7", name, () -> {
+            integral.compute(gray, 7);
+            integral.boxBlur(7, integralOutput);
+        });
+        bench("RoundelDetector.process", name, () -> {
+            roundelDetector.process(frame, pool);
+            pool.recycle();
+        });
+        bench("RoundelDetector.process + findObjects", name, () -> {
+            roundelDetector.process(frame, pool);
+            this.sink += roundelDetector.findObjects().size();
+            pool.recycle();
+        });
+        roundelDetector.setScale(1);
+        bench("RoundelDetector.process + findObjects half scale", name, () -> {
+            roundelDetector.process(frame, pool);
+            this.sink += roundelDetector.findObjects().size();
+            pool.recycle();
+        });
+        roundelDetector.setScale(0);
+        // Time the decode only where there is a code to decode, else only
+        // the miss would be timed
+        boolean decodes;
+        try {
+            decodes = RoundelCardboardDetection.readQRCode(gray) != null;
+        }
+        catch (NotFoundException e) {
+            decodes = false;
+        }
+        if (decodes) {
+            bench("RoundelCardboardDetection.readQRCode", name, () -> {
+                Point p = RoundelCardboardDetection.readQRCode(gray);
+                this.sink += p == null ? 0 : (long) p.x;
+            });
+        }
+        else if (this.framesDir == null) {
+            throw new IllegalStateException("The QR code of the synthetic " + name + " frame does not decode");
+        }
+        else {
+            System.out.printf("No QR code found in %s, decoding not timed%n", name);
+        }
+
+        pool.release();
+        analysis.release();
+        ballDetector.release();
+        roundelDetector.release();
+        morphology.release();
+        tiled.release();
+        tiledOutput.release();
+        integralOutput.release();
+    }
+
+    private void runQRCodeStages() throws Exception {
+        final Map<EncodeHintType, Object> hintMap = new HashMap<>();
+        hintMap.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
+        final File file = File.createTempFile("benchmark", ".png");
+        file.deleteOnExit();
+        final String path = file.getPath();
+        QRCode.createQRCode("Hello World!", path, "UTF-8", hintMap, 200, 200);
+
+        bench("QRCode.createQRCode", "200x200", () -> {
+            QRCode.createQRCode("Hello World!", path, "UTF-8", hintMap, 200, 200);
+        });
+        bench("QRCode.readQRCode", "200x200", () -> {
+            this.sink += QRCode.readQRCode(path, "UTF-8", hintMap).length();
+        });
+    }
+
+    private void bench(String stage, String frame, Stage op) throws Exception {
+        if (!Pattern.compile(this.filter).matcher(stage).find()) {
+            return;
+        }
+
+        // Warm up
+        long end = System.nanoTime() + this.warmupMillis * 1000000L;
+        while (System.nanoTime() < end) {
+            op.run();
+        }
+
+        // Measure
+        double best = Double.MAX_VALUE;
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < this.iterations; i++) {
+            long ops = 0;
+            long start = System.nanoTime();
+            end = start + this.iterationMillis * 1000000L;
+            long now;
+            do {
+                op.run();
+                ops++;
+                now = System.nanoTime();
+            } while (now < end);
+            best = Math.min(best, (now - start) / (double) ops);
+            totalOps += ops;
+            totalNanos += now - start;
+        }
+        double mean = totalNanos / (double) totalOps;
+        System.out.printf("%-34s %-12s %12.1f %12.1f %10.1f%n", stage, frame, mean / 1e3, best / 1e3, 1e9 / mean);
+    }
+
+    /**
+     * The first frame of a {@link SyntheticSource}: colored blobs on a noisy
+     * background and a QR code, always the same for a given size.
+     */
+    static Mat syntheticFrame(int width, int height) {
+        SyntheticSource source = new SyntheticSource(width, height, 1);
+        Mat frame = new Mat();
+        source.read(frame);
+        source.release();
+        return frame;
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-stage timings and frame counters of a running pipeline.
+ *
+ * Stages record their durations from any thread into lock-free
+ * {@link LatencyHistogram}s. Once started, the metrics are registered over
+ * JMX as "opencvdemos:type=PipelineMetrics,name=NAME" and logged every
+ * report interval, with the percentiles of that interval only.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class PipelineMetrics implements PipelineMetricsMXBean {
+
+    /**
+     * Timed stages.
+     */
+    public enum Stage {
+        CAPTURE,
+        // Comparison with the last processed frame
+        CHANGE,
+        DOWNSCALE, BLUR, COLOR_CONVERT, THRESHOLD, MORPHOLOGY, CONTOURS, QR, CONVERSION, RENDER,
+        // Capture to render, end to end
+        LATENCY
+    }
+
+    /**
+     * Report interval of the demos, in seconds, from the
+     * opencvdemos.metrics.interval system property; 0 to not log.
+     */
+    public static final long REPORT_INTERVAL = Long.getLong("opencvdemos.metrics.interval", 10);
+
+    private static final Logger LOGGER = Logger.getLogger(PipelineMetrics.class.getName());
+
+    private final String name;
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final AtomicLong renderedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    // Frames compared with the last processed one, and those found unchanged
+    private final AtomicLong checkedFrames = new AtomicLong();
+    private final AtomicLong skippedFrames = new AtomicLong();
+    // Frames offered to the QR decoder, those it skipped and those decoded
+    private final AtomicLong qrOfferedFrames = new AtomicLong();
+    private final AtomicLong qrSkippedFrames = new AtomicLong();
+    private final AtomicLong qrDecodedFrames = new AtomicLong();
+    // Frames given a region by the ROI tracker, those processed in full, and
+    // the pixels processed and captured
+    private final AtomicLong regionFrames = new AtomicLong();
+    private final AtomicLong fullRegionFrames = new AtomicLong();
+    private final AtomicLong regionPixels = new AtomicLong();
+    private final AtomicLong framePixels = new AtomicLong();
+    private volatile long nativeBytes;
+
+    // Reporting
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+    private final long startNanos = System.nanoTime();
+    // Cumulative state at the last report, and the interval before it
+    private Map<Stage, LatencyHistogram.Snapshot> lastSnapshots;
+    private long lastRenderedFrames;
+    private long lastCheckedFrames;
+    private long lastSkippedFrames;
+    private long lastQrOfferedFrames;
+    private long lastQrSkippedFrames;
+    private long lastQrDecodedFrames;
+    private long lastRegionFrames;
+    private long lastFullRegionFrames;
+    private long lastRegionPixels;
+    private long lastFramePixels;
+    private long lastReportNanos = this.startNanos;
+    private volatile Map<Stage, LatencyHistogram.Snapshot> window;
+    private volatile double framesPerSecond;
+    private volatile double skipRatio = Double.NaN;
+    private volatile double qrDecodeRate;
+    private volatile double qrSkipRatio = Double.NaN;
+    private volatile double pixelRatio = Double.NaN;
+    private volatile double fullFrameRatio = Double.NaN;
+
+    /**
+     * @param name name of the pipeline, used in the JMX name and log lines
+     */
+    public PipelineMetrics(String name) {
+        this.name = name;
+        for (Stage stage : Stage.values()) {
+            this.histograms.put(stage, new LatencyHistogram());
+        }
+        this.lastSnapshots = snapshots();
+    }
+
+    /**
+     * Records the time a stage took.
+     *
+     * @param stage the stage
+     * @param startNanos System.nanoTime() when the stage started
+     * @return System.nanoTime() now, to time the next stage from
+     */
+    public long record(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        this.histograms.get(stage).record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Counts a displayed frame.
+     *
+     * @param latencyNanos time from capture to display
+     */
+    public void frameRendered(long latencyNanos) {
+        this.histograms.get(Stage.LATENCY).record(latencyNanos);
+        this.renderedFrames.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame dropped between stages.
+     */
+    public void frameDropped() {
+        this.droppedFrames.incrementAndGet();
+    }
+
+    /**
+     * Counts a failed frame.
+     */
+    public void error() {
+        this.errors.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame compared with the last processed one.
+     *
+     * @param skipped true if it was unchanged and not processed
+     */
+    public void frameChecked(boolean skipped) {
+        this.checkedFrames.incrementAndGet();
+        if (skipped) {
+            this.skippedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a frame offered to the QR decoder.
+     *
+     * @param skipped true if it was not decoded
+     */
+    public void qrFrameOffered(boolean skipped) {
+        this.qrOfferedFrames.incrementAndGet();
+        if (skipped) {
+            this.qrSkippedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Counts a finished QR decode, whether a code was found or not.
+     */
+    public void qrFrameDecoded() {
+        this.qrDecodedFrames.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame given a region to process by the ROI tracker.
+     *
+     * @param pixels pixels of the region
+     * @param framePixels pixels of the frame; the same when processed in full
+     */
+    public void regionProcessed(long pixels, long framePixels) {
+        this.regionFrames.incrementAndGet();
+        if (pixels == framePixels) {
+            this.fullRegionFrames.incrementAndGet();
+        }
+        this.regionPixels.addAndGet(pixels);
+        this.framePixels.addAndGet(framePixels);
+    }
+
+    /**
+     * @param bytes native memory held by the Mats of the pipeline
+     */
+    public void setNativeBytes(long bytes) {
+        this.nativeBytes = bytes;
+    }
+
+    /**
+     * Registers the metrics over JMX and starts logging them.
+     *
+     * @param interval report interval, in seconds; 0 or less to not log
+     */
+    public synchronized void start(long interval) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            this.objectName = new ObjectName("opencvdemos:type=PipelineMetrics,name=" + ObjectName.quote(this.name));
+            if (server.isRegistered(this.objectName)) {
+                server.unregisterMBean(this.objectName);
+            }
+            server.registerMBean(this, this.objectName);
+        }
+        catch (JMException e) {
+            // log the error, the metrics are still logged
+            System.err.println("Exception registering the pipeline metrics: " + e);
+            this.objectName = null;
+        }
+        if (interval > 0) {
+            this.reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.reporter.scheduleAtFixedRate(() -> LOGGER.info(report()), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops logging and unregisters the metrics.
+     */
+    public synchronized void stop() {
+        if (this.reporter != null) {
+            this.reporter.shutdownNow();
+            this.reporter = null;
+        }
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            }
+            catch (JMException e) {
+                // already gone
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * Closes the current report interval.
+     *
+     * @return one line with the rates and the stage times of the interval
+     */
+    public synchronized String report() {
+        long now = System.nanoTime();
+        long rendered = this.renderedFrames.get();
+        Map<Stage, LatencyHistogram.Snapshot> current = snapshots();
+        Map<Stage, LatencyHistogram.Snapshot> interval = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            interval.put(stage, current.get(stage).minus(this.lastSnapshots.get(stage)));
+        }
+        double seconds = (now - this.lastReportNanos) / 1e9;
+        this.framesPerSecond = seconds > 0 ? (rendered - this.lastRenderedFrames) / seconds : 0;
+        long checked = this.checkedFrames.get();
+        long skipped = this.skippedFrames.get();
+        this.skipRatio = checked > this.lastCheckedFrames
+                ? (double) (skipped - this.lastSkippedFrames) / (checked - this.lastCheckedFrames) : Double.NaN;
+        this.lastCheckedFrames = checked;
+        this.lastSkippedFrames = skipped;
+        long qrOffered = this.qrOfferedFrames.get();
+        long qrOfferedBefore = this.lastQrOfferedFrames;
+        long qrSkipped = this.qrSkippedFrames.get();
+        long qrDecoded = this.qrDecodedFrames.get();
+        this.qrDecodeRate = seconds > 0 ? (qrDecoded - this.lastQrDecodedFrames) / seconds : 0;
+        this.qrSkipRatio = qrOffered > this.lastQrOfferedFrames
+                ? (double) (qrSkipped - this.lastQrSkippedFrames) / (qrOffered - this.lastQrOfferedFrames) : Double.NaN;
+        this.lastQrOfferedFrames = qrOffered;
+        this.lastQrSkippedFrames = qrSkipped;
+        this.lastQrDecodedFrames = qrDecoded;
+        long regions = this.regionFrames.get();
+        long fullRegions = this.fullRegionFrames.get();
+        long regionPixels = this.regionPixels.get();
+        long framePixels = this.framePixels.get();
+        this.pixelRatio = framePixels > this.lastFramePixels
+                ? (double) (regionPixels - this.lastRegionPixels) / (framePixels - this.lastFramePixels) : Double.NaN;
+        this.fullFrameRatio = regions > this.lastRegionFrames
+                ? (double) (fullRegions - this.lastFullRegionFrames) / (regions - this.lastRegionFrames) : Double.NaN;
+        this.lastRegionFrames = regions;
+        this.lastFullRegionFrames = fullRegions;
+        this.lastRegionPixels = regionPixels;
+        this.lastFramePixels = framePixels;
+        this.window = interval;
+        this.lastSnapshots = current;
+        this.lastRenderedFrames = rendered;
+        this.lastReportNanos = now;
+
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT,
+                "%s: %.1f fps, %d dropped, %d errors, %.1f MB native",
+                this.name, this.framesPerSecond, this.droppedFrames.get(), this.errors.get(), this.nativeBytes / 1048576.0));
+        if (!Double.isNaN(this.skipRatio)) {
+            line.append(String.format(Locale.ROOT, ", %.0f%% static frames skipped", this.skipRatio * 100));
+        }
+        if (!Double.isNaN(this.qrSkipRatio)) {
+            line.append(String.format(Locale.ROOT, ", QR %.1f decodes/s, %.0f%% of %d frames skipped",
+                    this.qrDecodeRate, this.qrSkipRatio * 100, qrOffered - qrOfferedBefore));
+        }
+        if (!Double.isNaN(this.pixelRatio)) {
+            line.append(String.format(Locale.ROOT, ", ROI %.0f%% of pixels, %.0f%% full frames",
+                    this.pixelRatio * 100, this.fullFrameRatio * 100));
+        }
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram.Snapshot s = interval.get(stage);
+            if (s.getCount() > 0) {
+                line.append(String.format(Locale.ROOT, " | %s p50 %.2f p99 %.2f max %.2f ms",
+                        stage.name().toLowerCase(Locale.ROOT), s.getPercentileMillis(50), s.getPercentileMillis(99), s.getMaxMillis()));
+            }
+        }
+        return line.toString();
+    }
+
+    private Map<Stage, LatencyHistogram.Snapshot> snapshots() {
+        Map<Stage, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            snapshots.put(stage, this.histograms.get(stage).getSnapshot());
+        }
+        return snapshots;
+    }
+
+    // Stage times of the last interval, or since the start before the first report
+    private Map<Stage, LatencyHistogram.Snapshot> window() {
+        Map<Stage, LatencyHistogram.Snapshot> window = this.window;
+        return window != null ? window : snapshots();
+    }
+
+    private Map<String, Double> perStage(double percentile) {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Map.Entry<Stage, LatencyHistogram.Snapshot> e : window().entrySet()) {
+            LatencyHistogram.Snapshot s = e.getValue();
+            values.put(e.getKey().name().toLowerCase(Locale.ROOT),
+                    percentile < 0 ? s.getMaxMillis() : s.getPercentileMillis(percentile));
+        }
+        return values;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        if (this.window == null) {
+            double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+            return seconds > 0 ? this.renderedFrames.get() / seconds : 0;
+        }
+        return this.framesPerSecond;
+    }
+
+    @Override
+    public long getRenderedFrames() {
+        return this.renderedFrames.get();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return this.droppedFrames.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    @Override
+    public long getSkippedFrames() {
+        return this.skippedFrames.get();
+    }
+
+    @Override
+    public double getSkipRatio() {
+        if (Double.isNaN(this.skipRatio)) {
+            long checked = this.checkedFrames.get();
+            return checked > 0 ? (double) this.skippedFrames.get() / checked : 0;
+        }
+        return this.skipRatio;
+    }
+
+    @Override
+    public long getQrOfferedFrames() {
+        return this.qrOfferedFrames.get();
+    }
+
+    @Override
+    public long getQrSkippedFrames() {
+        return this.qrSkippedFrames.get();
+    }
+
+    @Override
+    public long getQrDecodedFrames() {
+        return this.qrDecodedFrames.get();
+    }
+
+    @Override
+    public double getQrDecodeRate() {
+        if (this.window == null) {
+            double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+            return seconds > 0 ? this.qrDecodedFrames.get() / seconds : 0;
+        }
+        return this.qrDecodeRate;
+    }
+
+    @Override
+    public double getQrSkipRatio() {
+        if (Double.isNaN(this.qrSkipRatio)) {
+            long offered = this.qrOfferedFrames.get();
+            return offered > 0 ? (double) this.qrSkippedFrames.get() / offered : 0;
+        }
+        return this.qrSkipRatio;
+    }
+
+    @Override
+    public double getRoiPixelRatio() {
+        if (Double.isNaN(this.pixelRatio)) {
+            long framePixels = this.framePixels.get();
+            return framePixels > 0 ? (double) this.regionPixels.get() / framePixels : 0;
+        }
+        return this.pixelRatio;
+    }
+
+    @Override
+    public double getRoiFullFrameRatio() {
+        if (Double.isNaN(this.fullFrameRatio)) {
+            long regions = this.regionFrames.get();
+            return regions > 0 ? (double) this.fullRegionFrames.get() / regions : 0;
+        }
+        return this.fullFrameRatio;
+    }
+
+    @Override
+    public long getNativeBytes() {
+        return this.nativeBytes;
+    }
+
+    @Override
+    public Map<String, Double> getP50Millis() {
+        return perStage(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Millis() {
+        return perStage(99);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMillis() {
+        return perStage(-1);
+    }
+}
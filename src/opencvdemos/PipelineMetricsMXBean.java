@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link PipelineMetrics}. Rates and percentiles cover the last
+ * report interval.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public interface PipelineMetricsMXBean {
+
+    double getFramesPerSecond();
+
+    long getRenderedFrames();
+
+    long getDroppedFrames();
+
+    long getErrors();
+
+    /**
+     * @return frames the change detector found unchanged and did not
+     * process, since the start
+     */
+    long getSkippedFrames();
+
+    /**
+     * @return share of the frames the change detector compared that were
+     * skipped, from 0 to 1
+     */
+    double getSkipRatio();
+
+    /**
+     * @return frames offered to the QR decoder, since the start
+     */
+    long getQrOfferedFrames();
+
+    /**
+     * @return frames the QR decoder skipped to hold its rate, since the start
+     */
+    long getQrSkippedFrames();
+
+    /**
+     * @return frames the QR decoder decoded, found or not, since the start
+     */
+    long getQrDecodedFrames();
+
+    /**
+     * @return QR decodes per second
+     */
+    double getQrDecodeRate();
+
+    /**
+     * @return share of the frames offered to the QR decoder that it
+     * skipped, from 0 to 1
+     */
+    double getQrSkipRatio();
+
+    /**
+     * @return pixels processed over pixels captured while the ROI tracker
+     * is enabled, from 0 to 1
+     */
+    double getRoiPixelRatio();
+
+    /**
+     * @return share of the frames processed in full while the ROI tracker
+     * is enabled, from 0 to 1
+     */
+    double getRoiFullFrameRatio();
+
+    long getNativeBytes();
+
+    /**
+     * @return median time of each stage, in ms, keyed by stage name
+     */
+    Map<String, Double> getP50Millis();
+
+    /**
+     * @return 99th percentile time of each stage, in ms, keyed by stage name
+     */
+    Map<String, Double> getP99Millis();
+
+    /**
+     * @return longest time of each stage, in ms, keyed by stage name
+     */
+    Map<String, Double> getMaxMillis();
+}
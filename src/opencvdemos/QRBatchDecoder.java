@@ -0,0 +1,228 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decodes QR codes from many image files in parallel.
+ *
+ * Files are decoded on a fork-join pool, each worker thread keeping its own
+ * reader, and results are handed to the caller as they complete.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class QRBatchDecoder implements AutoCloseable {
+
+    /**
+     * Outcome of decoding one file.
+     */
+    public static class DecodeResult {
+        private final File file;
+        private final Result result;
+        private final Exception error;
+
+        DecodeResult(File file, Result result, Exception error) {
+            this.file = file;
+            this.result = result;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return this.file;
+        }
+
+        /**
+         * @return the decoded code, or null if none was found or on error
+         */
+        public Result getResult() {
+            return this.result;
+        }
+
+        /**
+         * @return why the file could not be read, or null
+         */
+        public Exception getError() {
+            return this.error;
+        }
+    }
+
+    // File extensions considered images when listing a directory
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList("bmp", "gif", "jpeg", "jpg", "png");
+
+    private final ForkJoinPool pool;
+    // Files queued or being decoded per worker thread, bounds memory use
+    private final int maxInFlight;
+    private final ThreadLocal<MultiFormatReader> readers;
+
+    /**
+     * @param threads number of decoding threads
+     * @param hintMap decode hints, or null
+     */
+    public QRBatchDecoder(int threads, final Map<DecodeHintType, ?> hintMap) {
+        this.pool = new ForkJoinPool(threads);
+        this.maxInFlight = threads * 4;
+        this.readers = ThreadLocal.withInitial(() -> {
+            MultiFormatReader reader = new MultiFormatReader();
+            reader.setHints(hintMap);
+            return reader;
+        });
+    }
+
+    /**
+     * Decodes the files, calling back on the calling thread as each result
+     * completes (not in input order).
+     *
+     * @param files the image files
+     * @param onResult receives every result
+     * @throws InterruptedException if interrupted while waiting for results
+     */
+    public void decode(Iterable<File> files, Consumer<DecodeResult> onResult) throws InterruptedException {
+        CompletionService<DecodeResult> completion = new ExecutorCompletionService<>(this.pool);
+        Iterator<File> it = files.iterator();
+        int inFlight = 0;
+        while (it.hasNext() || inFlight > 0) {
+            // Keep the pool busy without queueing every file at once
+            while (inFlight < this.maxInFlight && it.hasNext()) {
+                final File file = it.next();
+                completion.submit(() -> decode(file));
+                inFlight++;
+            }
+            try {
+                onResult.accept(completion.take().get());
+            }
+            catch (ExecutionException e) {
+                // decode() catches everything, so this is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+            inFlight--;
+        }
+    }
+
+    private DecodeResult decode(File file) {
+        MultiFormatReader reader = this.readers.get();
+        try {
+            return new DecodeResult(file, QRCode.readQRCode(file, reader), null);
+        }
+        catch (NotFoundException e) {
+            return new DecodeResult(file, null, null);
+        }
+        catch (Exception e) {
+            return new DecodeResult(file, null, e);
+        }
+        finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Stops the decoding threads, waiting up to a minute for them to finish.
+     * If interrupted while waiting, returns with the interrupt flag set.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+        try {
+            this.pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lists the image files of a directory, or returns the file itself.
+     *
+     * @param path a directory or a file
+     * @return the image files, sorted by name
+     */
+    public static List<File> listImages(File path) {
+        List<File> images = new ArrayList<>();
+        if (path.isDirectory()) {
+            File[] files = path.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    String name = file.getName();
+                    int dot = name.lastIndexOf('.');
+                    if (file.isFile() && dot >= 0 && IMAGE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                        images.add(file);
+                    }
+                }
+            }
+        }
+        else {
+            images.add(path);
+        }
+        return images;
+    }
+
+    /**
+     * Decodes every image in the given directories or files and prints one
+     * line per file: path, tab, text (or an error).
+     *
+     * @param args directories or image files
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: QRBatchDecoder <directory or file>...");
+            System.exit(1);
+        }
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            files.addAll(listImages(new File(arg)));
+        }
+
+        Map<DecodeHintType, Object> hintMap = new HashMap<>();
+        hintMap.put(DecodeHintType.CHARACTER_SET, "UTF-8");
+        final long[] found = new long[1];
+        long start = System.nanoTime();
+        try (QRBatchDecoder decoder = new QRBatchDecoder(Runtime.getRuntime().availableProcessors(), hintMap)) {
+            decoder.decode(files, r -> {
+                if (r.getResult() != null) {
+                    found[0]++;
+                    System.out.println(r.getFile() + "\t" + r.getResult().getText());
+                }
+                else if (r.getError() != null) {
+                    System.out.println(r.getFile() + "\tERROR: " + r.getError());
+                }
+                else {
+                    System.out.println(r.getFile() + "\tNo code was detected");
+                }
+            });
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Decoded %d of %d files in %.1f s (%.1f files/sec)%n",
+                found[0], files.size(), seconds, files.size() / seconds);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Generates many QR codes in parallel, rendering them to files, PNG bytes,
+ * raw pixel buffers or Mats.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class QRBatchEncoder {
+
+    /**
+     * Turns an encoded code into the requested output. Called concurrently.
+     *
+     * @param <T> the output type
+     */
+    public interface Renderer<T> {
+        /**
+         * @param index position of the payload in the input
+         * @param payload the encoded text
+         * @param matrix the encoded code
+         * @return the rendered output
+         */
+        T render(int index, String payload, BitMatrix matrix) throws IOException;
+    }
+
+    private final String charset;
+    private final Map<EncodeHintType, ?> hintMap;
+    private final int width, height;
+    // Optional cache of already generated codes
+    private volatile QRCodeCache cache;
+
+    /**
+     * @param charset charset of the payloads, e.g. "UTF-8"
+     * @param hintMap encode hints, or null
+     * @param width width of the codes, in pixels
+     * @param height height of the codes, in pixels
+     */
+    public QRBatchEncoder(String charset, Map<EncodeHintType, ?> hintMap, int width, int height) {
+        this.charset = charset;
+        this.hintMap = hintMap;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Encodes one payload.
+     */
+    public BitMatrix encode(String payload) throws WriterException, IOException {
+        QRCodeCache cache = this.cache;
+        if (cache != null) {
+            return cache.getMatrix(payload, this.charset, this.hintMap, this.width, this.height);
+        }
+        return QRCode.encodeQRCode(payload, this.charset, this.hintMap, this.height, this.width);
+    }
+
+    /**
+     * Serves repeated payloads from a cache.
+     *
+     * @param cache the cache, or null to always encode
+     */
+    public void setCache(QRCodeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Encodes and renders every payload in parallel.
+     *
+     * @param payloads the texts to encode
+     * @param renderer how to render each code
+     * @return the outputs, in input order
+     */
+    public <T> List<T> encodeAll(final List<String> payloads, final Renderer<T> renderer) {
+        return IntStream.range(0, payloads.size()).parallel()
+                .mapToObj(i -> render(i, payloads.get(i), renderer))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Encodes and renders every payload in parallel, handing each output to
+     * the sink as soon as it is ready instead of keeping them all.
+     *
+     * @param payloads the texts to encode
+     * @param renderer how to render each code
+     * @param sink receives the outputs, concurrently and in no given order
+     */
+    public <T> void encodeAll(final List<String> payloads, final Renderer<T> renderer, Consumer<? super T> sink) {
+        IntStream.range(0, payloads.size()).parallel()
+                .mapToObj(i -> render(i, payloads.get(i), renderer))
+                .forEach(sink);
+    }
+
+    private <T> T render(int index, String payload, Renderer<T> renderer) {
+        try {
+            return renderer.render(index, payload, encode(payload));
+        }
+        catch (WriterException e) {
+            throw new IllegalArgumentException("Cannot encode payload " + index + ": " + e, e);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes each code to dir/qr-INDEX.format.
+     *
+     * @param dir the output directory
+     * @param format image format, e.g. "png"
+     */
+    public static Renderer<File> toFiles(final File dir, final String format) {
+        return (index, payload, matrix) -> {
+            File file = new File(dir, String.format("qr-%06d.%s", index, format));
+            MatrixToImageWriter.writeToPath(matrix, format, file.toPath());
+            return file;
+        };
+    }
+
+    /**
+     * Renders each code as encoded image bytes, e.g. PNG.
+     *
+     * @param format image format, e.g. "png"
+     */
+    public static Renderer<byte[]> toBytes(final String format) {
+        return (index, payload, matrix) -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MatrixToImageWriter.writeToStream(matrix, format, out);
+            return out.toByteArray();
+        };
+    }
+
+    /**
+     * Renders each code as raw 8-bit gray pixels, row-major, black 0 and
+     * white 255, in a direct buffer.
+     */
+    public static Renderer<ByteBuffer> toPixels() {
+        return (index, payload, matrix) -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(matrix.getWidth() * matrix.getHeight());
+            buffer.put(toGray(matrix));
+            buffer.flip();
+            return buffer;
+        };
+    }
+
+    /**
+     * Renders each code into a CV_8UC1 Mat, black 0 and white 255, ready for
+     * compositing. Needs the native OpenCV library.
+     */
+    public static Renderer<Mat> toMat() {
+        return (index, payload, matrix) -> {
+            Mat mat = new Mat(matrix.getHeight(), matrix.getWidth(), CvType.CV_8UC1);
+            mat.put(0, 0, toGray(matrix));
+            return mat;
+        };
+    }
+
+    private static byte[] toGray(BitMatrix matrix) {
+        int width = matrix.getWidth();
+        int height = matrix.getHeight();
+        byte[] pixels = new byte[width * height];
+        BitArray row = new BitArray(width);
+        for (int y = 0; y < height; y++) {
+            row = matrix.getRow(y, row);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                pixels[offset + x] = row.get(x) ? 0 : (byte) 255;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Writes one PNG per line of a text file.
+     *
+     * @param args the payload file, the output directory, the code size and
+     * the memory budget of the cache of repeated payloads, in MB
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: QRBatchEncoder <payload file> <output dir> [size] [cache MB]");
+            System.exit(1);
+        }
+        List<String> payloads = Files.readAllLines(new File(args[0]).toPath());
+        File dir = new File(args[1]);
+        dir.mkdirs();
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        long cacheBytes = args.length > 3 ? Long.parseLong(args[3]) << 20 : 0;
+
+        Map<EncodeHintType, Object> hintMap = new HashMap<>();
+        hintMap.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
+        QRBatchEncoder encoder = new QRBatchEncoder("UTF-8", hintMap, size, size);
+        QRCodeCache cache = cacheBytes > 0 ? new QRCodeCache(cacheBytes) : null;
+        encoder.setCache(cache);
+        long start = System.nanoTime();
+        encoder.encodeAll(payloads, toFiles(dir, "png"));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Created %d codes in %.1f s (%.1f codes/sec)%n",
+                payloads.size(), seconds, payloads.size() / seconds);
+        if (cache != null) {
+            System.err.printf("Cache: %d hits, %d misses (%.0f%%), %d evictions%n",
+                    cache.getHits(), cache.getMisses(), 100 * cache.getHitRatio(), cache.getEvictions());
+        }
+    }
+}
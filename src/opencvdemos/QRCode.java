@@ -15,10 +15,13 @@
  */
 package opencvdemos;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,15 +30,17 @@ import javax.imageio.ImageIO;
 import com.google.zxing.BarcodeFormat;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.EncodeHintType;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.MultiFormatReader;
-import com.google.zxing.MultiFormatWriter;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
 import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.client.j2se.MatrixToImageWriter;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 
 /**
@@ -44,6 +49,9 @@ import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
  */
 public class QRCode {
 
+	// The writer keeps no state between calls, so it is shared
+	private static final QRCodeWriter WRITER = new QRCodeWriter();
+
 	public static void main(String[] args) throws WriterException, IOException,
 			NotFoundException {
 		String qrCodeData = "Hello World!";
@@ -63,20 +71,71 @@ public class QRCode {
 	public static void createQRCode(String qrCodeData, String filePath,
 			String charset, Map hintMap, int qrCodeheight, int qrCodewidth)
 			throws WriterException, IOException {
-		BitMatrix matrix = new MultiFormatWriter().encode(
-				new String(qrCodeData.getBytes(charset), charset),
-				BarcodeFormat.QR_CODE, qrCodewidth, qrCodeheight, hintMap);
+		BitMatrix matrix = encodeQRCode(qrCodeData, charset, hintMap,
+				qrCodeheight, qrCodewidth);
 		MatrixToImageWriter.writeToFile(matrix, filePath.substring(filePath
 				.lastIndexOf('.') + 1), new File(filePath));
 	}
 
+	public static BitMatrix encodeQRCode(String qrCodeData, String charset,
+			Map<EncodeHintType, ?> hintMap, int qrCodeheight, int qrCodewidth)
+			throws WriterException, UnsupportedEncodingException {
+		// Characters the charset cannot encode become '?', as they did with
+		// the getBytes/new String round trip; skip the copy otherwise
+		Charset cs;
+		try {
+			cs = Charset.forName(charset);
+		} catch (IllegalArgumentException e) {
+			throw new UnsupportedEncodingException(charset);
+		}
+		if (!cs.newEncoder().canEncode(qrCodeData)) {
+			qrCodeData = new String(qrCodeData.getBytes(cs), cs);
+		}
+		return WRITER.encode(qrCodeData, BarcodeFormat.QR_CODE, qrCodewidth,
+				qrCodeheight, hintMap);
+	}
+
 	public static String readQRCode(String filePath, String charset, Map hintMap)
 			throws FileNotFoundException, IOException, NotFoundException {
+		MultiFormatReader reader = new MultiFormatReader();
+		reader.setHints(hintMap);
+		return readQRCode(new File(filePath), reader).getText();
+	}
+
+	public static Result readQRCode(File file, MultiFormatReader reader)
+			throws FileNotFoundException, IOException, NotFoundException {
+		BufferedImage image;
+		try (FileInputStream in = new FileInputStream(file)) {
+			image = ImageIO.read(in);
+		}
+		if (image == null) {
+			throw new IOException("Unsupported image format: " + file);
+		}
+		return readQRCode(new BufferedImageLuminanceSource(image), reader);
+	}
+
+	public static Result readQRCode(LuminanceSource source,
+			MultiFormatReader reader) throws NotFoundException {
+		// The reader must already have its hints set
 		BinaryBitmap binaryBitmap = new BinaryBitmap(new HybridBinarizer(
-				new BufferedImageLuminanceSource(
-						ImageIO.read(new FileInputStream(filePath)))));
-		Result qrCodeResult = new MultiFormatReader().decode(binaryBitmap,
-				hintMap);
-		return qrCodeResult.getText();
+				source));
+		return reader.decodeWithState(binaryBitmap);
+	}
+
+	/**
+	 * Center of a decoded code: the mean of its three finder patterns. Codes
+	 * of version 2 and up also report their alignment pattern, which is left
+	 * out so every version is centered alike.
+	 *
+	 * @param points the result points of the decoded code
+	 * @return the center, or null if fewer than three points were found
+	 */
+	public static ResultPoint getCenter(ResultPoint[] points) {
+		if (points == null || points.length < 3) {
+			return null;
+		}
+		return new ResultPoint(
+				(points[0].getX() + points[1].getX() + points[2].getX()) / 3,
+				(points[0].getY() + points[1].getY() + points[2].getY()) / 3);
 	}
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded LRU cache of generated QR codes, keyed by payload, charset, encode
+ * hints and size.
+ *
+ * The cache holds the BitMatrix of each code and, once requested, its PNG
+ * bytes. Entries are evicted least recently used first when the estimated
+ * memory of all entries goes over the byte budget. Returned matrices and
+ * byte arrays are shared and must not be modified.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class QRCodeCache {
+
+    private static final class Key {
+        private final String payload;
+        private final String charset;
+        private final Map<EncodeHintType, Object> hintMap;
+        private final int width, height;
+
+        Key(String payload, String charset, Map<EncodeHintType, ?> hintMap, int width, int height) {
+            this.payload = payload;
+            this.charset = charset;
+            // Copied so later changes to the caller's map do not alter the key
+            this.hintMap = hintMap == null || hintMap.isEmpty()
+                    ? Collections.<EncodeHintType, Object>emptyMap()
+                    : Collections.unmodifiableMap(new EnumMap<EncodeHintType, Object>(hintMap));
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return this.width == k.width && this.height == k.height && this.payload.equals(k.payload)
+                    && this.charset.equals(k.charset) && this.hintMap.equals(k.hintMap);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.payload, this.charset, this.hintMap, this.width, this.height);
+        }
+    }
+
+    private static final class Entry {
+        private final BitMatrix matrix;
+        private byte[] png;
+        private long bytes;
+
+        Entry(BitMatrix matrix, long bytes) {
+            this.matrix = matrix;
+            this.bytes = bytes;
+        }
+    }
+
+    // Rough per-entry overhead of the key, entry and map node, in bytes
+    private static final long ENTRY_OVERHEAD = 160;
+
+    private final long maxBytes;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits, misses, evictions;
+
+    /**
+     * @param maxBytes memory budget of the cached codes, in bytes
+     */
+    public QRCodeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the code for the payload, encoding it only on a miss.
+     *
+     * @param hintMap encode hints, or null; every hint is part of the key
+     * @return the cached matrix, shared, must not be modified
+     */
+    public BitMatrix getMatrix(String payload, String charset, Map<EncodeHintType, ?> hintMap, int width, int height)
+            throws WriterException, IOException {
+        return getEntry(new Key(payload, charset, hintMap, width, height)).matrix;
+    }
+
+    /**
+     * Returns the code for the payload as PNG bytes, encoding it only on a
+     * miss.
+     *
+     * @param hintMap encode hints, or null; every hint is part of the key
+     * @return the cached bytes, shared, must not be modified
+     */
+    public byte[] getPng(String payload, String charset, Map<EncodeHintType, ?> hintMap, int width, int height)
+            throws WriterException, IOException {
+        Key key = new Key(payload, charset, hintMap, width, height);
+        Entry entry = getEntry(key);
+        synchronized (this) {
+            if (entry.png != null) {
+                return entry.png;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatrixToImageWriter.writeToStream(entry.matrix, "png", out);
+        byte[] png = out.toByteArray();
+        synchronized (this) {
+            if (entry.png == null) {
+                entry.png = png;
+                entry.bytes += png.length;
+                // Only account for it if the entry was not evicted meanwhile
+                if (this.entries.get(key) == entry) {
+                    this.bytes += png.length;
+                    evict();
+                }
+            }
+            return entry.png;
+        }
+    }
+
+    private Entry getEntry(Key key) throws WriterException, IOException {
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null) {
+                this.hits++;
+                return entry;
+            }
+            this.misses++;
+        }
+
+        // Encode outside the lock; two threads may encode the same payload
+        BitMatrix matrix = QRCode.encodeQRCode(key.payload, key.charset, key.hintMap, key.height, key.width);
+        Entry entry = new Entry(matrix, sizeOf(key, matrix));
+
+        synchronized (this) {
+            Entry existing = this.entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            this.entries.put(key, entry);
+            this.bytes += entry.bytes;
+            evict();
+            return entry;
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> it = this.entries.values().iterator();
+        while (this.bytes > this.maxBytes && it.hasNext()) {
+            this.bytes -= it.next().bytes;
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    private static long sizeOf(Key key, BitMatrix matrix) {
+        // BitMatrix packs 32 bits per int
+        return ENTRY_OVERHEAD + 2L * key.payload.length()
+                + 4L * matrix.getRowSize() * matrix.getHeight();
+    }
+
+    /**
+     * Removes every entry. Counters are kept.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return share of lookups served from the cache, from 0 to 1
+     */
+    public synchronized double getHitRatio() {
+        long lookups = this.hits + this.misses;
+        return lookups == 0 ? 0 : (double) this.hits / lookups;
+    }
+
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return estimated memory of the cached codes, in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return this.bytes;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+}
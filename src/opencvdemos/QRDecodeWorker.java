@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ResultPoint;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+/**
+ * Decodes QR codes on its own thread, off the frame loop.
+ *
+ * Only the latest offered frame is decoded: frames offered while a decode is
+ * running, before the minimum interval between decodes has elapsed, or that
+ * are not a multiple of the frame interval are skipped. The center of the
+ * last code found is published with a timestamp. The offered, skipped and
+ * decoded frames are counted in the {@link PipelineMetrics} set, if any.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class QRDecodeWorker {
+
+    /**
+     * A detected QR code center and when its frame was decoded.
+     */
+    public static class Detection {
+        private final Point center;
+        private final Rect bounds;
+        private final long timestampMillis;
+
+        Detection(Point center, Rect bounds, long timestampMillis) {
+            this.center = center;
+            this.bounds = bounds;
+            this.timestampMillis = timestampMillis;
+        }
+
+        public Point getCenter() {
+            return this.center;
+        }
+
+        /**
+         * @return box around the finder patterns of the code
+         */
+        public Rect getBounds() {
+            return this.bounds;
+        }
+
+        public long getTimestampMillis() {
+            return this.timestampMillis;
+        }
+    }
+
+    private final ExecutorService executor;
+    // The reader used by the worker thread
+    private final MultiFormatReader reader = new MultiFormatReader();
+    // Set while a decode is queued or running
+    private final AtomicBoolean busy = new AtomicBoolean();
+    // Luminance buffer, only touched while busy
+    private byte[] buffer;
+
+    // Configuration
+    private final long minIntervalNanos;
+    private final int frameInterval;
+    // Optional decode timer and counters
+    private volatile PipelineMetrics metrics;
+
+    // State
+    private volatile Detection lastDetection;
+    private volatile long lastDecodeNanos;
+    private final AtomicLong offeredFrames = new AtomicLong();
+
+    /**
+     * @param maxDecodesPerSecond upper bound of the decode rate, or 0 for no limit
+     * @param frameInterval decode at most one of every this many frames
+     */
+    public QRDecodeWorker(double maxDecodesPerSecond, int frameInterval) {
+        if (frameInterval < 1) {
+            throw new IllegalArgumentException("Frame interval must be positive: " + frameInterval);
+        }
+        this.minIntervalNanos = maxDecodesPerSecond > 0 ? (long) (1e9 / maxDecodesPerSecond) : 0;
+        this.frameInterval = frameInterval;
+        this.reader.setHints(RoundelCardboardDetection.QR_HINTS);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "qr-decode");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a worker with the opencvdemos.qr.rate maximum decodes per
+     * second, 10 by default, 0 for no limit, and the opencvdemos.qr.interval
+     * frame interval, 1 by default.
+     *
+     * @return the worker
+     */
+    public static QRDecodeWorker fromProperties() {
+        return new QRDecodeWorker(Integer.getInteger("opencvdemos.qr.rate", 10),
+                Integer.getInteger("opencvdemos.qr.interval", 1));
+    }
+
+    /**
+     * Offers a frame for decoding without waiting for the decoder. The bytes
+     * are copied before returning, so the Mat can be reused right away.
+     *
+     * @param gray a CV_8UC1 frame
+     * @return true if the frame will be decoded, false if it was skipped
+     */
+    public boolean offer(Mat gray) {
+        return offer(gray, 0, 0);
+    }
+
+    /**
+     * Offers a region of a frame for decoding; the detection is reported in
+     * the coordinates of the whole frame.
+     *
+     * @param gray a CV_8UC1 region of a frame
+     * @param offsetX x of the region in the frame
+     * @param offsetY y of the region in the frame
+     * @return true if the region will be decoded, false if it was skipped
+     */
+    public boolean offer(Mat gray, final int offsetX, final int offsetY) {
+        long frame = this.offeredFrames.getAndIncrement();
+        long now = System.nanoTime();
+        PipelineMetrics metrics = this.metrics;
+        if (frame % this.frameInterval != 0
+                || now - this.lastDecodeNanos < this.minIntervalNanos
+                || !this.busy.compareAndSet(false, true)) {
+            if (metrics != null) {
+                metrics.qrFrameOffered(true);
+            }
+            return false;
+        }
+        if (metrics != null) {
+            metrics.qrFrameOffered(false);
+        }
+        this.lastDecodeNanos = now;
+        final MatLuminanceSource source;
+        try {
+            source = new MatLuminanceSource(gray, this.buffer);
+            this.buffer = source.getMatrix();
+            this.executor.execute(() -> decode(source, offsetX, offsetY));
+        }
+        catch (RuntimeException e) {
+            this.busy.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    private void decode(MatLuminanceSource source, int offsetX, int offsetY) {
+        long start = System.nanoTime();
+        try {
+            ResultPoint[] points = QRCode.readQRCode(source, this.reader).getResultPoints();
+            ResultPoint center = QRCode.getCenter(points);
+            if (center != null) {
+                // Bounds of the three finder patterns the center is taken from
+                double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+                double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                for (int i = 0; i < 3; i++) {
+                    ResultPoint p = points[i];
+                    minX = Math.min(minX, p.getX());
+                    minY = Math.min(minY, p.getY());
+                    maxX = Math.max(maxX, p.getX());
+                    maxY = Math.max(maxY, p.getY());
+                }
+                Rect bounds = new Rect((int) minX + offsetX, (int) minY + offsetY,
+                        (int) Math.ceil(maxX - minX) + 1, (int) Math.ceil(maxY - minY) + 1);
+                this.lastDetection = new Detection(new Point(center.getX() + offsetX, center.getY() + offsetY), bounds, System.currentTimeMillis());
+            }
+        }
+        catch (NotFoundException e) {
+            // Most frames do not contain a code
+        }
+        catch (Exception e) {
+            // log the error
+            System.err.println("Exception while decoding QR code: " + e);
+        }
+        finally {
+            this.reader.reset();
+            PipelineMetrics metrics = this.metrics;
+            if (metrics != null) {
+                metrics.record(PipelineMetrics.Stage.QR, start);
+                metrics.qrFrameDecoded();
+            }
+            this.busy.set(false);
+        }
+    }
+
+    /**
+     * Stops the worker thread.
+     *
+     * @param timeout how long to wait for a running decode
+     * @param unit unit of the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        this.executor.shutdown();
+        this.executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return the last code found, or null if none was found yet
+     */
+    public Detection getLastDetection() {
+        return this.lastDetection;
+    }
+
+    /**
+     * Times each decode and counts the offered, skipped and decoded frames.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+}
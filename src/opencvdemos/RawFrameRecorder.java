@@ -0,0 +1,322 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Records frames as raw pixels into a memory-mapped, append-only file, for
+ * exact replay by {@link RawFrameSource} without any codec.
+ *
+ * The file starts with a header: the magic "OCVRAW01", the header size, the
+ * frame rows, cols and OpenCV type, the slot header size, the frame data
+ * size and the number of frames recorded. Frames follow in fixed-size slots,
+ * each with its own header (ns since the first frame, data size, type, rows
+ * and cols) and the pixels, row by row. Numbers are little endian.
+ *
+ * The file is mapped and grown a chunk at a time. The frame count in the
+ * header is updated after each frame, so a recording cut short is still
+ * readable up to its last complete frame.
+ *
+ * Only 8-bit frames, the kind cameras deliver, are supported.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class RawFrameRecorder implements Closeable {
+
+    static final byte[] MAGIC = "OCVRAW01".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 32;
+    // Offset of the frame count in the header
+    static final int COUNT_OFFSET = 32;
+
+    // Bytes mapped at a time as the file grows
+    private static final long CHUNK_BYTES = 64L << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int rows, cols, type, dataSize;
+    private final long slotSize;
+    private final int chunkSlots;
+    // Mapped slots, from the slot with index chunkFirst
+    private MappedByteBuffer chunk;
+    private long chunkFirst;
+    private long count;
+    private long firstNanos;
+    // Pixels of the frame being written
+    private final byte[] pixels;
+
+    /**
+     * Creates a recording, replacing any file at the path.
+     *
+     * @param path the file
+     * @param rows frame rows
+     * @param cols frame columns
+     * @param type OpenCV type of the frames, 8-bit
+     * @throws IOException if the file cannot be created
+     */
+    public RawFrameRecorder(File path, int rows, int cols, int type) throws IOException {
+        if (CvType.depth(type) != CvType.CV_8U && CvType.depth(type) != CvType.CV_8S) {
+            throw new IllegalArgumentException("Only 8-bit frames can be recorded: " + CvType.typeToString(type));
+        }
+        if (rows < 1 || cols < 1) {
+            throw new IllegalArgumentException("Invalid frame size: " + cols + "x" + rows);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.type = type;
+        this.dataSize = rows * cols * CvType.channels(type);
+        this.slotSize = SLOT_HEADER_SIZE + this.dataSize;
+        this.chunkSlots = (int) Math.max(1, CHUNK_BYTES / this.slotSize);
+        this.pixels = new byte[this.dataSize];
+
+        this.file = new RandomAccessFile(path, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.header = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        this.header.order(ByteOrder.LITTLE_ENDIAN);
+        this.header.put(MAGIC);
+        this.header.putInt(HEADER_SIZE);
+        this.header.putInt(rows);
+        this.header.putInt(cols);
+        this.header.putInt(type);
+        this.header.putInt(SLOT_HEADER_SIZE);
+        this.header.putInt(this.dataSize);
+        this.header.putLong(COUNT_OFFSET, 0);
+    }
+
+    /**
+     * Appends a frame, timed now.
+     *
+     * @param frame a frame of the recording's size and type
+     * @throws IOException if the file cannot grow
+     */
+    public void append(Mat frame) throws IOException {
+        append(frame, System.nanoTime());
+    }
+
+    /**
+     * Appends a frame.
+     *
+     * @param frame a frame of the recording's size and type
+     * @param nanos System.nanoTime() when it was captured
+     * @throws IOException if the file cannot grow
+     */
+    public void append(Mat frame, long nanos) throws IOException {
+        if (frame.rows() != this.rows || frame.cols() != this.cols || frame.type() != this.type) {
+            throw new IllegalArgumentException("Frame does not match the recording: " + frame
+                    + ", expected " + this.cols + "x" + this.rows + " " + CvType.typeToString(this.type));
+        }
+        if (this.count == 0) {
+            this.firstNanos = nanos;
+        }
+        if (this.chunk == null || this.count - this.chunkFirst >= this.chunkSlots) {
+            // Map the next chunk, which grows the file
+            this.chunkFirst = this.count;
+            this.chunk = this.channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + this.count * this.slotSize, this.chunkSlots * this.slotSize);
+            this.chunk.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int position = (int) ((this.count - this.chunkFirst) * this.slotSize);
+        this.chunk.putLong(position, nanos - this.firstNanos);
+        this.chunk.putInt(position + 8, this.dataSize);
+        this.chunk.putInt(position + 12, this.type);
+        this.chunk.putInt(position + 16, this.rows);
+        this.chunk.putInt(position + 20, this.cols);
+
+        // OpenCV's Java API cannot write into a ByteBuffer, so the pixels are
+        // copied twice, through one reused array
+        frame.get(0, 0, this.pixels);
+        ByteBuffer data = this.chunk.duplicate();
+        data.position(position + SLOT_HEADER_SIZE);
+        data.put(this.pixels);
+
+        // Publish the frame last
+        this.count++;
+        this.header.putLong(COUNT_OFFSET, this.count);
+    }
+
+    /**
+     * @return number of frames recorded
+     */
+    public long getFrameCount() {
+        return this.count;
+    }
+
+    /**
+     * Flushes the recording and trims the unused part of the last chunk.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        this.header.force();
+        if (this.chunk != null) {
+            this.chunk.force();
+        }
+        this.chunk = null;
+        try {
+            this.channel.truncate(HEADER_SIZE + this.count * this.slotSize);
+        }
+        catch (IOException e) {
+            // Some systems cannot truncate a mapped file; the count in the
+            // header still tells where the frames end
+        }
+        this.file.close();
+    }
+
+    /**
+     * Wraps a source so every frame read from it is also recorded. The
+     * recording is created on the first frame, with its size and type;
+     * if it fails, the source keeps going unrecorded.
+     *
+     * @param source the source to record
+     * @param path the recording
+     * @return the recording source; releasing it closes the recording
+     */
+    public static FrameSource recording(FrameSource source, File path) {
+        return new FrameSource() {
+            private RawFrameRecorder recorder;
+            private boolean failed;
+
+            @Override
+            public String getName() {
+                return source.getName();
+            }
+
+            @Override
+            public boolean read(Mat frame) {
+                if (!source.read(frame)) {
+                    return false;
+                }
+                long now = System.nanoTime();
+                if (!this.failed) {
+                    try {
+                        if (this.recorder == null) {
+                            this.recorder = new RawFrameRecorder(path, frame.rows(), frame.cols(), frame.type());
+                        }
+                        this.recorder.append(frame, now);
+                    }
+                    catch (IOException | IllegalArgumentException e) {
+                        // log the error and stop recording
+                        System.err.println("Exception recording to " + path + ": " + e);
+                        this.failed = true;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public double getFrameRate() {
+                return source.getFrameRate();
+            }
+
+            @Override
+            public void setPacing(Pacing pacing) {
+                source.setPacing(pacing);
+            }
+
+            @Override
+            public void release() {
+                source.release();
+                if (this.recorder != null) {
+                    try {
+                        this.recorder.close();
+                    }
+                    catch (IOException e) {
+                        // log the error
+                        System.err.println("Exception closing " + path + ": " + e);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Command line options of {@link #main(String[])}.
+     */
+    private static class Options {
+        @Parameter(names = {"-i", "--input"}, description = "Frame source: camera:N, a video file, synthetic:WxH[:FRAMES]...")
+        private String input = "camera:0";
+
+        @Parameter(names = {"-o", "--output"}, required = true, description = "Recording to write")
+        private String output;
+
+        @Parameter(names = {"-n", "--frames"}, description = "Frames to record; 0 until the source ends")
+        private long frames;
+
+        @Parameter(names = {"-h", "--help"}, help = true, description = "Show this help")
+        private boolean help;
+    }
+
+    /**
+     * Records a frame source, e.g. a production camera, for later replay.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        Options options = new Options();
+        JCommander commander = new JCommander(options);
+        commander.setProgramName(RawFrameRecorder.class.getSimpleName());
+        try {
+            commander.parse(args);
+        }
+        catch (ParameterException e) {
+            System.err.println(e.getMessage());
+            commander.usage();
+            System.exit(1);
+        }
+        if (options.help) {
+            commander.usage();
+            return;
+        }
+
+        // load the native OpenCV library
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        FrameSource source = FrameSource.open(options.input);
+        source.setPacing(FrameSource.Pacing.REAL_TIME);
+        FrameSource recording = recording(source, new File(options.output));
+        Mat frame = new Mat();
+        long count = 0;
+        long start = System.nanoTime();
+        try {
+            while ((options.frames == 0 || count < options.frames) && recording.read(frame)) {
+                count++;
+            }
+        }
+        finally {
+            frame.release();
+            recording.release();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Recorded %d frames in %.1f s (%.1f frames/sec)%n", count, seconds, count / seconds);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import org.opencv.core.Mat;
+
+/**
+ * Replays a recording of {@link RawFrameRecorder}, memory-mapped, with the
+ * recorded frame timing under real-time pacing.
+ *
+ * OpenCV's Java API has no Mat over memory it does not own, so each frame is
+ * copied twice, with no decoding: from the mapping into a reused array, then
+ * from the array into the Mat's native memory.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class RawFrameSource extends PacedFrameSource {
+
+    // Bytes mapped at a time, at most
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int rows, cols, type, dataSize;
+    private final long slotSize;
+    private final long count;
+    private final int segmentSlots;
+    private final double frameRate;
+    // Mapped slots, from the slot with index segmentFirst
+    private MappedByteBuffer segment;
+    private long segmentFirst;
+    private long next;
+    private long timestamp;
+    // Pixels of the frame being read
+    private final byte[] pixels;
+
+    /**
+     * @param path a recording
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public RawFrameSource(File path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(path, "r");
+        try {
+            this.channel = this.file.getChannel();
+            if (this.channel.size() < RawFrameRecorder.HEADER_SIZE) {
+                throw new IOException("Not a raw frame recording: " + path);
+            }
+            ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, RawFrameRecorder.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] magic = new byte[RawFrameRecorder.MAGIC.length];
+            header.get(magic);
+            int headerSize = header.getInt();
+            this.rows = header.getInt();
+            this.cols = header.getInt();
+            this.type = header.getInt();
+            int slotHeaderSize = header.getInt();
+            this.dataSize = header.getInt();
+            if (!Arrays.equals(magic, RawFrameRecorder.MAGIC) || headerSize != RawFrameRecorder.HEADER_SIZE
+                    || slotHeaderSize != RawFrameRecorder.SLOT_HEADER_SIZE || this.dataSize <= 0) {
+                throw new IOException("Not a raw frame recording: " + path);
+            }
+            this.slotSize = slotHeaderSize + this.dataSize;
+            // Frames past the end of the file, if it was cut, are ignored
+            this.count = Math.min(header.getLong(RawFrameRecorder.COUNT_OFFSET),
+                    (this.channel.size() - headerSize) / this.slotSize);
+            this.segmentSlots = (int) Math.max(1, SEGMENT_BYTES / this.slotSize);
+            this.pixels = new byte[this.dataSize];
+
+            // Mean rate, for callers that want one; pacing uses the timestamps
+            long last = this.count > 1 ? slot(this.count - 1).getLong(position(this.count - 1)) : 0;
+            this.frameRate = last > 0 ? (this.count - 1) * 1e9 / last : 0;
+        }
+        catch (IOException | RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    // The mapping holding a slot
+    private MappedByteBuffer slot(long index) throws IOException {
+        if (this.segment == null || index < this.segmentFirst || index >= this.segmentFirst + this.segmentSlots) {
+            this.segmentFirst = index / this.segmentSlots * this.segmentSlots;
+            long slots = Math.min(this.segmentSlots, this.count - this.segmentFirst);
+            this.segment = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                    RawFrameRecorder.HEADER_SIZE + this.segmentFirst * this.slotSize, slots * this.slotSize);
+            this.segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return this.segment;
+    }
+
+    // Offset of a slot in its mapping
+    private int position(long index) {
+        return (int) ((index - this.segmentFirst) * this.slotSize);
+    }
+
+    @Override
+    protected boolean readFrame(Mat frame) {
+        if (this.next >= this.count) {
+            return false;
+        }
+        try {
+            MappedByteBuffer buffer = slot(this.next);
+            int position = position(this.next);
+            this.timestamp = buffer.getLong(position);
+            ByteBuffer data = buffer.duplicate();
+            data.position(position + RawFrameRecorder.SLOT_HEADER_SIZE);
+            data.get(this.pixels);
+        }
+        catch (IOException e) {
+            // log the error, and end the replay
+            System.err.println("Exception reading " + this.path + ": " + e);
+            return false;
+        }
+        frame.create(this.rows, this.cols, this.type);
+        frame.put(0, 0, this.pixels);
+        this.next++;
+        return true;
+    }
+
+    @Override
+    protected long getTimestampNanos() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return number of frames in the recording
+     */
+    public long getFrameCount() {
+        return this.count;
+    }
+
+    @Override
+    public String getName() {
+        return this.path.getName();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return this.frameRate;
+    }
+
+    @Override
+    public void release() {
+        this.segment = null;
+        try {
+            this.file.close();
+        }
+        catch (IOException e) {
+            // log the error
+            System.err.println("Exception closing " + this.path + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.Rect;
+
+/**
+ * Chooses the region of each frame to process: a padded box around the last
+ * detections while tracking, the full frame otherwise.
+ *
+ * The full frame is processed again every few frames, to pick up objects
+ * that entered elsewhere, and after a few frames without any detection.
+ * Region sizes are rounded up to a coarse step so the buffers sized by them
+ * are reused from frame to frame. While enabled, the share of pixels and of
+ * full frames processed is counted in the {@link PipelineMetrics} set, if
+ * any.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class RoiTracker {
+
+    // Region sizes are multiples of this, in pixels
+    private static final int SIZE_STEP = 64;
+
+    private final int padding;
+    private final int reacquireInterval;
+    private final int maxMisses;
+    private boolean enabled = true;
+
+    // Union of the last detections, in frame coordinates, while tracking
+    private final Rect tracked = new Rect();
+    private boolean tracking;
+    private int misses;
+    private int framesSinceFull;
+    // Optional pixel counters
+    private PipelineMetrics metrics;
+
+    /**
+     * @param padding margin around the last detections, in pixels
+     * @param reacquireInterval process the full frame at least once every this many frames
+     * @param maxMisses frames without detections before the track is dropped
+     */
+    public RoiTracker(int padding, int reacquireInterval, int maxMisses) {
+        if (padding < 0 || reacquireInterval < 1 || maxMisses < 1) {
+            throw new IllegalArgumentException("Invalid tracker settings: " + padding + ", " + reacquireInterval + ", " + maxMisses);
+        }
+        this.padding = padding;
+        this.reacquireInterval = reacquireInterval;
+        this.maxMisses = maxMisses;
+    }
+
+    /**
+     * @param enabled false to always process the full frame
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            this.tracking = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Counts the pixels and full frames processed while enabled.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the region to process in the next frame.
+     *
+     * @param width frame width
+     * @param height frame height
+     * @return the region, in frame coordinates
+     */
+    public Rect nextRoi(int width, int height) {
+        Rect roi;
+        if (!this.enabled || !this.tracking || ++this.framesSinceFull >= this.reacquireInterval) {
+            this.framesSinceFull = 0;
+            roi = new Rect(0, 0, width, height);
+        }
+        else {
+            // Pad, round the size up and keep it inside the frame
+            int w = Math.min(width, roundUp(this.tracked.width + 2 * this.padding));
+            int h = Math.min(height, roundUp(this.tracked.height + 2 * this.padding));
+            int cx = this.tracked.x + this.tracked.width / 2;
+            int cy = this.tracked.y + this.tracked.height / 2;
+            int x = Math.max(0, Math.min(width - w, cx - w / 2));
+            int y = Math.max(0, Math.min(height - h, cy - h / 2));
+            roi = new Rect(x, y, w, h);
+        }
+        if (this.enabled && this.metrics != null) {
+            this.metrics.regionProcessed((long) roi.width * roi.height, (long) width * height);
+        }
+        return roi;
+    }
+
+    /**
+     * Reports the objects found in the last frame, without building a
+     * rectangle per object or per frame.
+     *
+     * @param objects the objects, in frame coordinates
+     */
+    public void update(ContourAnalysis objects) {
+        if (objects.getCount() == 0) {
+            lose();
+            return;
+        }
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < objects.getCount(); i++) {
+            x0 = Math.min(x0, objects.getRectX(i));
+            y0 = Math.min(y0, objects.getRectY(i));
+            x1 = Math.max(x1, objects.getRectX(i) + objects.getRectWidth(i));
+            y1 = Math.max(y1, objects.getRectY(i) + objects.getRectHeight(i));
+        }
+        track(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Reports a single detection of the last frame.
+     *
+     * @param detection bounding rectangle, in frame coordinates
+     */
+    public void update(Rect detection) {
+        track(detection.x, detection.y, detection.width, detection.height);
+    }
+
+    // Updates the tracked box in place
+    private void track(int x, int y, int width, int height) {
+        if (this.enabled) {
+            this.tracked.x = x;
+            this.tracked.y = y;
+            this.tracked.width = width;
+            this.tracked.height = height;
+            this.tracking = true;
+            this.misses = 0;
+        }
+    }
+
+    /**
+     * Reports that nothing was found in the last frame.
+     */
+    public void lose() {
+        if (this.tracking && ++this.misses >= this.maxMisses) {
+            this.tracking = false;
+            this.misses = 0;
+        }
+    }
+
+    private static int roundUp(int size) {
+        return (size + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP;
+    }
+}
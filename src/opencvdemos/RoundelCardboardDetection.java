@@ -15,41 +15,29 @@
  */
 package opencvdemos;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.EncodeHintType;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
 import com.google.zxing.MultiFormatReader;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
-import com.google.zxing.RGBLuminanceSource;
 import com.google.zxing.ResultPoint;
-import com.google.zxing.common.HybridBinarizer;
-import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
-import java.awt.Image;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import javax.imageio.ImageIO;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.videoio.VideoCapture;
 
 /**
  *
@@ -57,12 +45,46 @@ import org.opencv.videoio.VideoCapture;
  */
 public class RoundelCardboardDetection extends javax.swing.JFrame {
 
-    // A timer for acquiring the video stream
-    private ScheduledExecutorService timer;
-    // The OpenCV object that realizes the video capture
-    private VideoCapture capture;
+    // Capture, processing and render threads for the video stream
+    private FramePipeline pipeline;
+    // Where the frames come from, opened on start
+    private FrameSource source;
     // A flag to change the button behavior
     private boolean cameraActive;
+    // Decodes QR codes off the frame loop
+    private QRDecodeWorker qrWorker;
+    // Hints for the QR code reader
+    static final Map<DecodeHintType, Object> QR_HINTS = new HashMap<>();
+
+    // How long a QR code detection is shown, in ms
+    private static final long QR_DETECTION_TTL = 1000;
+
+    static {
+        QR_HINTS.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE));
+    }
+    // Mats used while processing a frame, recycled at the end of each frame
+    private final MatPool pool = new MatPool();
+    // Stage timings, logged and exposed over JMX while the camera is on
+    private PipelineMetrics metrics;
+    // Gray conversion and adaptive threshold
+    private final RoundelDetector detector = new RoundelDetector();
+    // Region of each frame to process, around the last QR code found. Codes
+    // are decoded a few times a second, so the frames in between count as
+    // misses; allow about a third of a second of them
+    private final RoiTracker tracker = new RoiTracker(Integer.getInteger("opencvdemos.roi.padding", 80),
+            Integer.getInteger("opencvdemos.roi.reacquire", 30), 10);
+    // Time of the QR detection last fed to the tracker
+    private long trackedQrTimestamp;
+    // Skips processing while the scene is static, null to process every frame
+    private final ChangeDetector changeDetector = ChangeDetector.fromProperties();
+    // Contours and region of the last processed frame, shown again while static
+    private ContourAnalysis contours;
+    private Rect roi;
+    // HSV range as start and stop triples, published by the slider
+    // listeners on the Swing thread for the processing thread
+    private volatile int[] hsvRange;
+    // HSV range text last sent to the label
+    private String hsvText;
 
     /**
      * Creates new form RoundelCardboardDetection
@@ -74,9 +96,38 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
         // load the native OpenCV library
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         // Init components
-        this.capture = new VideoCapture();
         this.cameraActive = false;
         this.hsvCurrentValues.setText("");
+        // Thumbnails of the intermediate steps
+        this.maskImage.setImageSize(205, 154);
+        this.morphImage.setImageSize(205, 154);
+        this.detector.setScale(Integer.getInteger("opencvdemos.scale", 0));
+        this.detector.setThresholdMethod(RoundelDetector.ThresholdMethod.valueOf(
+                System.getProperty("opencvdemos.threshold", "gaussian").toUpperCase(Locale.ROOT)));
+        this.detector.setBlockSize(Integer.getInteger("opencvdemos.threshold.block", 7));
+        this.detector.setBlurSize(Integer.getInteger("opencvdemos.threshold.blur", 7));
+        this.detector.setThresholdStrips(Integer.getInteger("opencvdemos.threshold.strips",
+                Runtime.getRuntime().availableProcessors()));
+        this.tracker.setEnabled(Boolean.getBoolean("opencvdemos.roi"));
+        // The processing thread reads the sliders through this field only
+        for (JSlider slider : new JSlider[]{this.hueStart, this.saturationStart, this.valueStart,
+                this.hueStop, this.saturationStop, this.valueStop}) {
+            slider.addChangeListener(e -> publishHsvRange());
+        }
+        publishHsvRange();
+    }
+
+    private void publishHsvRange() {
+        this.hsvRange = new int[]{this.hueStart.getValue(), this.saturationStart.getValue(), this.valueStart.getValue(),
+            this.hueStop.getValue(), this.saturationStop.getValue(), this.valueStop.getValue()};
+    }
+
+    // Sets the label on the Swing thread, only when the text changes
+    private void showHsvRange(String text) {
+        if (!text.equals(this.hsvText)) {
+            this.hsvText = text;
+            SwingUtilities.invokeLater(() -> this.hsvCurrentValues.setText(text));
+        }
     }
 
     /**
@@ -89,9 +140,9 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
     private void initComponents() {
 
         buttonGroup1 = new javax.swing.ButtonGroup();
-        currentFrame = new javax.swing.JPanel();
-        maskImage = new javax.swing.JPanel();
-        morphImage = new javax.swing.JPanel();
+        currentFrame = new opencvdemos.VideoPanel();
+        maskImage = new opencvdemos.VideoPanel();
+        morphImage = new opencvdemos.VideoPanel();
         btnStart = new javax.swing.JButton();
         hueStart = new javax.swing.JSlider();
         hueStop = new javax.swing.JSlider();
@@ -250,129 +301,96 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
     }// </editor-fold>//GEN-END:initComponents
 
     public static Point readQRCode(Mat frame) throws NotFoundException {
-        BufferedImage image = null;
-        BinaryBitmap bitmap = null;
-        Result result = null;
-    
-        Map hintMap = new HashMap();
-        hintMap.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
-        
-        try {
-            image = (BufferedImage) mat2Image(frame);
-            
-            int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
-            RGBLuminanceSource source = new RGBLuminanceSource(image.getWidth(), image.getHeight(), pixels);
-            bitmap = new BinaryBitmap(new HybridBinarizer(source));
+        // The decoder only needs luminance, so read the gray channel directly
+        Mat gray = frame;
+        if (frame.channels() != 1) {
+            gray = new Mat();
+            Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
         }
-        catch (Exception e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+        try {
+            MultiFormatReader reader = new MultiFormatReader();
+            reader.setHints(QR_HINTS);
+            return readQRCode(new MatLuminanceSource(gray), reader);
         }
-    
-        if (bitmap == null)
-            return null;
-    
-        Result qrCodeResult = new MultiFormatReader().decode(bitmap, hintMap);
-        ResultPoint[] points = qrCodeResult.getResultPoints();
-        if (points.length == 3) {
-            Point p = new Point();
-            p.x = (points[0].getX() + points[1].getX() + points[2].getX()) / 3;
-            p.y = (points[0].getY() + points[1].getY() + points[2].getY()) / 3;
-            return p;
+        finally {
+            if (gray != frame) {
+                gray.release();
+            }
         }
-        else
-            return null;
     }
 
-    private static Image mat2Image(Mat frame) {
-        // Create a temporary buffer
-        MatOfByte buffer = new MatOfByte();
-        // Encode the frame in the buffer, according to the PNG format
-        Imgcodecs.imencode(".png", frame, buffer);
-        // Build and return an Image created from the image encoded in the buffer
-        // Return new BufferedImage(new ByteArrayInputStream(buffer.toArray()));
-        BufferedImage img = null;
+    static Point readQRCode(LuminanceSource source, MultiFormatReader reader) throws NotFoundException {
+        Result qrCodeResult = QRCode.readQRCode(source, reader);
+        ResultPoint center = QRCode.getCenter(qrCodeResult.getResultPoints());
+        return center == null ? null : new Point(center.getX(), center.getY());
+    }
+
+    // The source named by opencvdemos.source, e.g. a video file or
+    // synthetic:640x480, else the given one, recorded to the file named by
+    // opencvdemos.record if set; null if it cannot be opened
+    private FrameSource openSource(String defaultSpec) {
         try {
-            img = ImageIO.read(new ByteArrayInputStream(buffer.toArray()));
-        } catch (Exception e) {
+            FrameSource source = FrameSource.open(System.getProperty("opencvdemos.source", defaultSpec));
+            String record = System.getProperty("opencvdemos.record");
+            return record == null ? source : RawFrameRecorder.recording(source, new File(record));
+        } catch (IOException | IllegalArgumentException e) {
             // log the error
-            System.err.println("Exception while converting frame: " + e);
+            System.err.println("Exception opening the video source: " + e);
+            return null;
         }
-        return img;
     }
 
-    private Mat findAndDrawObjects(Mat maskedImage, Mat frame) {
-        // Init
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-
-        // Find contours
-        Imgproc.findContours(maskedImage, contours, hierarchy, Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
-
-        // If any contour exist...
-        if (hierarchy.size().height > 0 && hierarchy.size().width > 0) {
-            // for each contour, display it in blue
-            for (int idx = 0; idx >= 0; idx = (int) hierarchy.get(0, idx)[0]) {
-                Imgproc.drawContours(frame, contours, idx, new Scalar(250, 0, 0));
-            }
-        }
-
-        return frame;
+    private boolean grabFrame(Frame f) {
+        // Read the current frame
+        return this.source.grab(f);
     }
 
-    private Image grabFrame() {
-        // Init everything
-        Image imageToShow = null;
-        Mat frame = new Mat();
-
-        // Check if the capture is open
-        if (this.capture.isOpened()) {
-            try {
-                // Read the current frame
-                this.capture.read(frame);
-                try {
-                    System.out.println(readQRCode(frame));
-                }
-                catch (Exception ex) {
-                    System.out.println("No code was detected");
-                }
+    private void processFrame(Frame f) {
+        Mat frame = f.getMat();
+        try {
+            // If the frame is not empty, process it
+            if (!frame.empty()) {
                 // Flip image for easy object manipulation
                 Core.flip(frame, frame, 1);
 
-                // If the frame is not empty, process it
-                if (!frame.empty()) {
-                    // Init
-                    Mat blurredImage = new Mat();
-                    Mat hsvImage = new Mat();
-                    Mat mask = new Mat();
-                    Mat morphOutput = new Mat();
+                // Process again only if the scene changed; a static scene
+                // keeps the contours of the last processed frame
+                if (this.changeDetector == null || this.changeDetector.hasChanged(frame)) {
+                    // Convert the frame to -HSV- gray and threshold it, only
+                    // around the last QR code while tracking
+                    this.roi = this.tracker.nextRoi(frame.cols(), frame.rows());
+                    Mat region = frame.submat(this.roi);
+                    this.detector.process(region, this.pool);
+                    Mat hsvImage = this.detector.getGray();
+                    Mat morphOutput = this.detector.getMorphOutput();
 
-                    // Convert the frame to -HSV- gray
-                    Imgproc.cvtColor(frame, hsvImage, Imgproc.COLOR_BGR2GRAY);
-                    // Remove some noise
-                    Imgproc.blur(hsvImage, blurredImage, new Size(7, 7));
+                    // Look for a QR code in the gray image, without waiting for the result
+                    this.qrWorker.offer(hsvImage, this.roi.x, this.roi.y);
 
                     // Get thresholding values from the UI
                     // Remember: H ranges 0-180, S and V range 0-255
-                    Scalar minValues = new Scalar(this.hueStart.getValue(), this.saturationStart.getValue(), this.valueStart.getValue());
-                    Scalar maxValues = new Scalar(this.hueStop.getValue(), this.saturationStop.getValue(), this.valueStop.getValue());
+                    int[] range = this.hsvRange;
+                    Scalar minValues = new Scalar(range[0], range[1], range[2]);
+                    Scalar maxValues = new Scalar(range[3], range[4], range[5]);
 
                     // Show the current selected HSV range
                     String valuesToPrint = "Hue range: " + minValues.val[0] + "-" + maxValues.val[0]
                             + ". Sat. range: " + minValues.val[1] + "-" + maxValues.val[1] + ". Value range: "
                             + minValues.val[2] + "-" + maxValues.val[2];
-                    hsvCurrentValues.setText(valuesToPrint);
+                    showHsvRange(valuesToPrint);
 
                     // Threshold HSV image to select object
                     //Core.inRange(hsvImage, minValues, maxValues, mask);
                     // Show the partial output
                     //maskImage.getGraphics().drawImage(mat2Image(mask), 0, 0, 205, 154, null);
-                    maskImage.getGraphics().drawImage(mat2Image(hsvImage), 0, 0, 205, 154, null);
+                    long t = System.nanoTime();
+                    this.maskImage.show(hsvImage);
+                    this.metrics.record(PipelineMetrics.Stage.CONVERSION, t);
 
                     ////////////////////////////////
                     ////////////////////////////////
 
-                    
+                
                     // Morphological operators
                     // Dilate with large element, erode with small ones
                     //Mat dilateElement = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(24, 24));
@@ -383,21 +401,45 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
 
                     //Imgproc.dilate(mask, morphOutput, dilateElement);
                     //Imgproc.dilate(mask, morphOutput, dilateElement);
-                    
+                
                     // Threshold
                     //Imgproc.threshold(hsvImage, morphOutput, 255, this.hueStart.getValue(), Imgproc.THRESH_BINARY);
-                    Imgproc.adaptiveThreshold(hsvImage, morphOutput, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, 7, 7);
                     // Show the partial output
-                    morphImage.getGraphics().drawImage(mat2Image(morphOutput), 0, 0, 205, 154, null);
+                    t = System.nanoTime();
+                    this.morphImage.show(morphOutput);
+                    this.metrics.record(PipelineMetrics.Stage.CONVERSION, t);
+
+                    // Find the object(s) contours, mapped back to frame coordinates
+                    region.release();
+                    this.contours = this.detector.findContours(this.roi.x, this.roi.y);
+                }
+
+                // Show the contours in blue
+                this.contours.draw(frame, new Scalar(250, 0, 0));
+                if (this.roi.width < frame.cols() || this.roi.height < frame.rows()) {
+                    // Show the tracked region
+                    Imgproc.rectangle(frame, this.roi.tl(), this.roi.br(), new Scalar(128, 128, 128), 1);
+                }
 
-                    // Find the object(s) contours and show them
-                    frame = this.findAndDrawObjects(morphOutput, frame);
+                // Show the last QR code found, if recent, and track it only
+                // when it is new, so a stale one does not pin the region
+                QRDecodeWorker.Detection detection = this.qrWorker.getLastDetection();
+                if (detection != null && System.currentTimeMillis() - detection.getTimestampMillis() < QR_DETECTION_TTL) {
+                    Imgproc.circle(frame, detection.getCenter(), 20, new Scalar(0, 255, 0), 2);
+                }
+                if (detection != null && detection.getTimestampMillis() != this.trackedQrTimestamp) {
+                    this.trackedQrTimestamp = detection.getTimestampMillis();
+                    this.tracker.update(detection.getBounds());
+                }
+                else {
+                    this.tracker.lose();
+                }
 
-                    // Calculate centers
-                    //Mat temp = new Mat();
-                    //morphOutput.copyTo(temp);
-                    //List<MatOfPoint> contours = new ArrayList<>();
-                    //Imgproc.findContours(temp, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+                // Calculate centers
+                //Mat temp = new Mat();
+                //morphOutput.copyTo(temp);
+                //List<MatOfPoint> contours = new ArrayList<>();
+                //Imgproc.findContours(temp, contours, new Mat(), Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
 //                    for (int i = 0; i < contours.size(); i++) {
 //                        Rect objectBoundingRectangle = Imgproc.boundingRect(contours.get(i));
 //                        int x = objectBoundingRectangle.x + objectBoundingRectangle.width / 2;
@@ -411,44 +453,53 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
 //                        Imgproc.line(frame, new Point(x, y), new Point(x + 25, y), new Scalar(0, 255, 0), 2);
 //                        Imgproc.putText(frame, "Tracking object at (" + x + "," + y + ")", new Point(x, y), 1, 1, new Scalar(255, 0, 0), 2);
 //                    }
-
-                    // convert the Mat object (OpenCV) to Image (Java AWT)
-                    imageToShow = mat2Image(frame);
-                }
-
-            } catch (Exception e) {
-                // log the error
-                System.err.println("Exception during the frame elaboration: " + e);
             }
+        } finally {
+            // hand the frame's Mats back for the next frame
+            this.metrics.setNativeBytes(this.pool.getNativeBytes());
+            this.pool.recycle();
         }
+    }
 
-        return imageToShow;
+    private void renderFrame(Frame f) {
+        if (!f.getMat().empty()) {
+            // convert the Mat object (OpenCV) to Image (Java AWT), painted
+            // by the Swing thread
+            long t = System.nanoTime();
+            this.currentFrame.show(f.getMat());
+            this.metrics.record(PipelineMetrics.Stage.CONVERSION, t);
+        }
     }
 
     private void btnStartActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btnStartActionPerformed
         if (!this.cameraActive) {
-            // start the video capture
-            if (cameraOne.isSelected())
-                this.capture.open(0);
-            else
-                this.capture.open(1);
+            // start the video capture, or any source given by opencvdemos.source
+            this.source = openSource(cameraOne.isSelected() ? "camera:0" : "camera:1");
 
             // is the video stream available?
-            if (this.capture.isOpened()) {
+            if (this.source != null) {
                 this.cameraActive = true;
 
-                // grab a frame every 33 ms (30 frames/sec)
-                Runnable frameGrabber = new Runnable() {
-                    @Override
-                    public void run() {
-                        Image imageToShow = grabFrame();
-                        //currentFrame.setImage(imageToShow);
-                        currentFrame.getGraphics().drawImage(imageToShow, 0, 0, null);
-                    }
-                };
+                // time every stage
+                this.metrics = new PipelineMetrics(RoundelCardboardDetection.class.getSimpleName());
+                this.detector.setMetrics(this.metrics);
+                this.tracker.setMetrics(this.metrics);
+                if (this.changeDetector != null) {
+                    this.changeDetector.setMetrics(this.metrics);
+                }
+
+                // decode QR codes at the rate set by opencvdemos.qr.rate and
+                // opencvdemos.qr.interval
+                this.qrWorker = QRDecodeWorker.fromProperties();
+                this.qrWorker.setMetrics(this.metrics);
 
-                this.timer = Executors.newSingleThreadScheduledExecutor();
-                this.timer.scheduleAtFixedRate(frameGrabber, 0, 33, TimeUnit.MILLISECONDS);
+                // capture, process and render on separate threads, keeping
+                // only the newest frames when a stage falls behind
+                this.pipeline = new FramePipeline(this::grabFrame, this::processFrame, this::renderFrame,
+                        2, FrameQueue.OverflowPolicy.DROP_OLDEST);
+                this.pipeline.setMetrics(this.metrics);
+                this.metrics.start(PipelineMetrics.REPORT_INTERVAL);
+                this.pipeline.start();
 
                 // update the button content
                 this.btnStart.setText("Stop Camera");
@@ -462,25 +513,42 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
             // update again the button content
             this.btnStart.setText("Start Camera");
 
-            // stop the timer
+            // stop the capture, processing and render threads
+            boolean stopped = false;
             try {
-                this.timer.shutdown();
-                this.timer.awaitTermination(33, TimeUnit.MILLISECONDS);
+                stopped = this.pipeline.stop(500, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 // log the exception
                 System.err.println("Exception in stopping the frame capture, trying to release the camera now... " + e);
             }
+            // stop the QR decoder even if the pipeline did not stop, it
+            // decodes its own copy of the frame
+            try {
+                this.qrWorker.shutdown(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // log the exception
+                System.err.println("Exception in stopping the QR decoder: " + e);
+            }
+
+            this.metrics.stop();
 
             // release the camera
-            this.capture.release();
+            this.source.release();
+            // release the frame buffers, unless a frame is still being processed
+            if (stopped) {
+                this.pool.release();
+                this.detector.release();
+                this.maskImage.release();
+                this.morphImage.release();
+                if (this.changeDetector != null) {
+                    this.changeDetector.release();
+                    this.changeDetector.reset();
+                }
+            }
             // clean the frame
-            //this.currentFrame.setImage(null);
-            this.currentFrame.getGraphics().clearRect(0, 0, currentFrame.getWidth(), currentFrame.getHeight());
-            this.currentFrame.getBorder().paintBorder(currentFrame, currentFrame.getGraphics(), 0, 0, currentFrame.getWidth(), currentFrame.getHeight());
-            this.maskImage.getGraphics().clearRect(0, 0, maskImage.getWidth(), maskImage.getHeight());
-            this.maskImage.getBorder().paintBorder(maskImage, maskImage.getGraphics(), 0, 0, maskImage.getWidth(), maskImage.getHeight());
-            this.morphImage.getGraphics().clearRect(0, 0, morphImage.getWidth(), morphImage.getHeight());
-            this.morphImage.getBorder().paintBorder(morphImage, morphImage.getGraphics(), 0, 0, morphImage.getWidth(), morphImage.getHeight());
+            this.currentFrame.clear();
+            this.maskImage.clear();
+            this.morphImage.clear();
         }
     }//GEN-LAST:event_btnStartActionPerformed
 
@@ -524,12 +592,12 @@ public class RoundelCardboardDetection extends javax.swing.JFrame {
     private javax.swing.ButtonGroup buttonGroup1;
     private javax.swing.JRadioButton cameraOne;
     private javax.swing.JRadioButton cameraTwo;
-    private javax.swing.JPanel currentFrame;
+    private opencvdemos.VideoPanel currentFrame;
     private javax.swing.JLabel hsvCurrentValues;
     private javax.swing.JSlider hueStart;
     private javax.swing.JSlider hueStop;
-    private javax.swing.JPanel maskImage;
-    private javax.swing.JPanel morphImage;
+    private opencvdemos.VideoPanel maskImage;
+    private opencvdemos.VideoPanel morphImage;
     private javax.swing.JSlider saturationStart;
     private javax.swing.JSlider saturationStop;
     private javax.swing.JSlider valueStart;
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Detection stages of {@link RoundelCardboardDetection}: gray conversion and
+ * adaptive threshold, plus the bounding rectangles of the shapes found,
+ * without any UI.
+ *
+ * The gray image stays at full resolution for the QR reader; the threshold
+ * can run on a downscaled copy, with the shapes mapped back to frame
+ * coordinates. The threshold can be split into strips run in parallel, or
+ * computed from block means in an {@link IntegralImage}, whose cost does not
+ * grow with the block size. The mean threshold compares each pixel box
+ * blurred, as the demo meant to remove some noise, from the same integral
+ * image.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class RoundelDetector {
+
+    /**
+     * How the threshold of each pixel is computed from its block.
+     */
+    public enum ThresholdMethod {
+        // Gaussian-weighted mean, the demo's original threshold
+        GAUSSIAN,
+        // Plain mean, from an integral image that also blurs the pixels
+        MEAN
+    }
+
+    // Smallest contour area reported by findObjects
+    private double minArea;
+    // Pyramid levels below full resolution the threshold runs at
+    private int levels;
+    private ThresholdMethod thresholdMethod = ThresholdMethod.GAUSSIAN;
+    // Block size and mean threshold blur size at full resolution
+    private int blockSize = 7;
+    private int blurSize = 7;
+    // Gaussian threshold in parallel strips, or null for a single call
+    private TiledAdaptiveThreshold tiled;
+    // Mean threshold, created on first use
+    private IntegralImage integral;
+    private final ContourAnalysis contours = new ContourAnalysis();
+
+    // Outputs of the last frame, valid until the pool is recycled
+    private Mat gray;
+    private Mat morphOutput;
+    // Optional stage timers
+    private PipelineMetrics metrics;
+
+    public void setMinArea(double minArea) {
+        this.minArea = minArea;
+    }
+
+    /**
+     * Sets the resolution of the threshold.
+     *
+     * @param levels 0 for full resolution, 1 for half, 2 for quarter...
+     */
+    public void setScale(int levels) {
+        if (levels < 0 || levels > 4) {
+            throw new IllegalArgumentException("Invalid pyramid level: " + levels);
+        }
+        this.levels = levels;
+    }
+
+    /**
+     * @param method how the threshold is computed, by default
+     * {@link ThresholdMethod#GAUSSIAN}
+     */
+    public void setThresholdMethod(ThresholdMethod method) {
+        this.thresholdMethod = method;
+    }
+
+    /**
+     * Sets the neighbourhood of the threshold at full resolution, by default
+     * 7; it shrinks with the scale.
+     *
+     * @param blockSize block width and height, odd and at least 3
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 3 || blockSize % 2 == 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Sets the box blur of each pixel before the mean threshold compares it
+     * with its block, at full resolution, by default 7; it shrinks with the
+     * scale. The Gaussian threshold is not blurred.
+     *
+     * @param blurSize kernel width and height, odd; 1 for none
+     */
+    public void setBlurSize(int blurSize) {
+        if (blurSize < 1 || blurSize % 2 == 0) {
+            throw new IllegalArgumentException("Invalid blur size: " + blurSize);
+        }
+        this.blurSize = blurSize;
+    }
+
+    /**
+     * Splits the Gaussian threshold into strips run on the common fork-join pool;
+     * the output is the same.
+     *
+     * @param strips strips per frame, at most; 1 for a single call
+     */
+    public void setThresholdStrips(int strips) {
+        if (strips < 1) {
+            throw new IllegalArgumentException("Invalid strip count: " + strips);
+        }
+        if (this.tiled != null) {
+            this.tiled.release();
+        }
+        this.tiled = strips == 1 ? null : new TiledAdaptiveThreshold(ForkJoinPool.commonPool(), strips);
+    }
+
+    /**
+     * Times each stage of the following frames.
+     *
+     * @param metrics where to record, or null
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Converts the frame to gray and thresholds it.
+     *
+     * @param frame a BGR frame
+     * @param pool pool for the intermediate Mats, recycled by the caller
+     */
+    public void process(Mat frame, MatPool pool) {
+        // Init
+        this.gray = pool.acquire(frame.rows(), frame.cols(), CvType.CV_8UC1);
+
+        long t = System.nanoTime();
+
+        // Convert the frame to gray
+        Imgproc.cvtColor(frame, this.gray, Imgproc.COLOR_BGR2GRAY);
+        t = mark(PipelineMetrics.Stage.COLOR_CONVERT, t);
+
+        // Halve the size once per pyramid level
+        Mat input = this.gray;
+        for (int i = 0; i < this.levels; i++) {
+            Mat smaller = pool.acquire((input.rows() + 1) / 2, (input.cols() + 1) / 2, CvType.CV_8UC1);
+            Imgproc.pyrDown(input, smaller, smaller.size());
+            input = smaller;
+        }
+        if (this.levels > 0) {
+            t = mark(PipelineMetrics.Stage.DOWNSCALE, t);
+        }
+        this.morphOutput = pool.acquire(input.rows(), input.cols(), CvType.CV_8UC1);
+
+        // Threshold, with the neighbourhood shrunk to the scale (odd, at least 3)
+        int blockSize = Math.max(3, (this.blockSize >> this.levels) | 1);
+        if (this.thresholdMethod == ThresholdMethod.MEAN) {
+            if (this.integral == null) {
+                this.integral = new IntegralImage();
+            }
+            int blurSize = (this.blurSize >> this.levels) | 1;
+            this.integral.compute(input, Math.max(blockSize, blurSize));
+            this.integral.meanThreshold(255, blockSize, blurSize, 7, this.morphOutput);
+        }
+        else if (this.tiled != null) {
+            this.tiled.apply(input, this.morphOutput, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, blockSize, 7);
+        }
+        else {
+            Imgproc.adaptiveThreshold(input, this.morphOutput, 255, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C, Imgproc.THRESH_BINARY, blockSize, 7);
+        }
+        mark(PipelineMetrics.Stage.THRESHOLD, t);
+    }
+
+    /**
+     * Finds the contours of the last thresholded frame, in the coordinates
+     * of the full resolution frame. The thresholded image is modified.
+     *
+     * @param offsetX x of the processed region in the frame
+     * @param offsetY y of the processed region in the frame
+     * @return the contours, valid until the next call
+     */
+    public ContourAnalysis findContours(int offsetX, int offsetY) {
+        long t = System.nanoTime();
+        this.contours.analyze(this.morphOutput, offsetX, offsetY, 1 << this.levels);
+        mark(PipelineMetrics.Stage.CONTOURS, t);
+        return this.contours;
+    }
+
+    /**
+     * Finds the outermost contours of the last thresholded frame. The
+     * thresholded image is modified.
+     *
+     * @return the bounding rectangle of each contour of at least the minimum area
+     */
+    public List<Rect> findObjects() {
+        ContourAnalysis found = findContours(0, 0);
+        List<Rect> objects = new ArrayList<>();
+        for (int i = 0; i < found.getCount(); i++) {
+            if (this.minArea <= 0 || found.getArea(i) >= this.minArea) {
+                objects.add(found.getBoundingRect(i));
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Releases the native memory of the contours and threshold strips.
+     */
+    public void release() {
+        this.contours.release();
+        if (this.tiled != null) {
+            this.tiled.release();
+        }
+    }
+
+    private long mark(PipelineMetrics.Stage stage, long start) {
+        return this.metrics == null ? start : this.metrics.record(stage, start);
+    }
+
+    /**
+     * @return the gray image of the last frame
+     */
+    public Mat getGray() {
+        return this.gray;
+    }
+
+    /**
+     * @return the thresholded image of the last frame
+     */
+    public Mat getMorphOutput() {
+        return this.morphOutput;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Generated frames for load tests without a camera: colored blobs bouncing
+ * over a noisy background, plus a QR code drifting along the top, drawn
+ * last so every frame decodes.
+ *
+ * The sequence depends only on the size, blob count and seed, so runs are
+ * reproducible. The first blob is always in the default HSV range of the
+ * ball demo.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class SyntheticSource extends PacedFrameSource {
+
+    /**
+     * Text of the generated QR code.
+     */
+    public static final String QR_TEXT = "Hello World!";
+
+    private static final double FRAME_RATE = 30;
+
+    private final int width, height;
+    private final long frameCount;
+    private final Random random;
+    private long frames;
+
+    // Blob positions, velocities (pixels per frame), radii and colors
+    private final double[] x, y, vx, vy;
+    private final int[] radius;
+    private final Scalar[] colors;
+    // QR code position and velocity
+    private int codeX;
+    private int codeStep;
+
+    // Built on the first frame
+    private Mat background;
+    private Mat code;
+
+    /**
+     * @param width frame width
+     * @param height frame height
+     * @param frameCount frames to generate; 0 for no end
+     */
+    public SyntheticSource(int width, int height, long frameCount) {
+        this(width, height, frameCount, 12, 42);
+    }
+
+    /**
+     * @param width frame width
+     * @param height frame height
+     * @param frameCount frames to generate; 0 for no end
+     * @param blobs number of blobs
+     * @param seed seed of the layout, motion and noise
+     */
+    public SyntheticSource(int width, int height, long frameCount, int blobs, long seed) {
+        if (width < 64 || height < 64 || frameCount < 0 || blobs < 0) {
+            throw new IllegalArgumentException("Invalid synthetic source: " + width + "x" + height + ", " + frameCount + " frames, " + blobs + " blobs");
+        }
+        this.width = width;
+        this.height = height;
+        this.frameCount = frameCount;
+        this.random = new Random(seed);
+        this.x = new double[blobs];
+        this.y = new double[blobs];
+        this.vx = new double[blobs];
+        this.vy = new double[blobs];
+        this.radius = new int[blobs];
+        this.colors = new Scalar[blobs];
+        for (int i = 0; i < blobs; i++) {
+            this.x[i] = this.random.nextInt(width);
+            this.y[i] = this.random.nextInt(height);
+            this.vx[i] = this.random.nextDouble() * 8 - 4;
+            this.vy[i] = this.random.nextDouble() * 8 - 4;
+            this.radius[i] = height / 40 + this.random.nextInt(height / 12);
+            // Yellow for the first one, which the ball demo looks for: HSV
+            // (25, 188, 230), inside its default range of (20-50, 60-200, 50-255)
+            this.colors[i] = i == 0 ? new Scalar(60, 200, 230)
+                    : new Scalar(this.random.nextInt(256), this.random.nextInt(256), this.random.nextInt(256));
+        }
+        this.codeStep = Math.max(1, width / 200);
+    }
+
+    private void init() {
+        // Noise drawn once, so frames cost a copy instead of a random fill
+        this.background = new Mat(this.height, this.width, CvType.CV_8UC3);
+        byte[] noise = new byte[this.width * this.height * 3];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (byte) (80 + this.random.nextInt(60));
+        }
+        this.background.put(0, 0, noise);
+        // Smoothed, or ZXing's finder pattern search gets lost in pixel
+        // sized specks all over the frame
+        Imgproc.GaussianBlur(this.background, this.background, new Size(3, 3), 0);
+
+        Map<EncodeHintType, Object> hintMap = new HashMap<>();
+        hintMap.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
+        int size = Math.min(this.width, this.height) / 3;
+        try {
+            Mat gray = QRBatchEncoder.toMat().render(0, QR_TEXT, QRCode.encodeQRCode(QR_TEXT, "UTF-8", hintMap, size, size));
+            // A flat white border around the encoder's own quiet zone
+            int border = size / 8;
+            Core.copyMakeBorder(gray, gray, border, border, border, border, Core.BORDER_CONSTANT, new Scalar(255));
+            this.code = new Mat();
+            Imgproc.cvtColor(gray, this.code, Imgproc.COLOR_GRAY2BGR);
+            gray.release();
+        }
+        catch (WriterException | IOException e) {
+            throw new IllegalStateException("Cannot encode the QR code", e);
+        }
+        this.codeX = this.width - this.code.cols() - 20;
+    }
+
+    @Override
+    protected boolean readFrame(Mat frame) {
+        if (this.frameCount > 0 && this.frames >= this.frameCount) {
+            return false;
+        }
+        if (this.background == null) {
+            init();
+        }
+        this.background.copyTo(frame);
+
+        for (int i = 0; i < this.x.length; i++) {
+            Imgproc.circle(frame, new Point(this.x[i], this.y[i]), this.radius[i], this.colors[i], -1);
+            // Move, bouncing at the edges
+            this.x[i] += this.vx[i];
+            this.y[i] += this.vy[i];
+            if (this.x[i] < 0 || this.x[i] >= this.width) {
+                this.vx[i] = -this.vx[i];
+                this.x[i] = Math.max(0, Math.min(this.width - 1, this.x[i]));
+            }
+            if (this.y[i] < 0 || this.y[i] >= this.height) {
+                this.vy[i] = -this.vy[i];
+                this.y[i] = Math.max(0, Math.min(this.height - 1, this.y[i]));
+            }
+        }
+        // The code drifts along the top, bouncing at the edges, over the
+        // blobs so it stays readable
+        Mat target = frame.submat(new Rect(this.codeX, 20, this.code.cols(), this.code.rows()));
+        this.code.copyTo(target);
+        target.release();
+        if (this.codeX + this.codeStep < 0 || this.codeX + this.codeStep + this.code.cols() > this.width) {
+            this.codeStep = -this.codeStep;
+        }
+        this.codeX += this.codeStep;
+
+        this.frames++;
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return "synthetic" + this.width + "x" + this.height;
+    }
+
+    @Override
+    public double getFrameRate() {
+        return FRAME_RATE;
+    }
+
+    @Override
+    public void release() {
+        if (this.background != null) {
+            this.background.release();
+            this.code.release();
+            this.background = null;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Imgproc.adaptiveThreshold split into horizontal strips run on a fork-join
+ * pool.
+ *
+ * Each strip is thresholded with a halo of one block size of rows above and
+ * below, so every output pixel sees the same neighbourhood as in a single
+ * call, and only the strip itself is copied to the output. The result is
+ * bit-identical to Imgproc.adaptiveThreshold on the whole image.
+ *
+ * Not thread safe; use one per processing thread. The pool can be shared.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class TiledAdaptiveThreshold {
+
+    private final ForkJoinPool pool;
+    private final int strips;
+    // Blocks of rows per strip, at least
+    private final int minStripBlocks;
+    // Thresholded strips with their halos, created on first use
+    private Mat[] outputs = new Mat[0];
+
+    /**
+     * Splits into one strip per thread of the common pool, plus one for the
+     * calling thread.
+     */
+    public TiledAdaptiveThreshold() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    /**
+     * @param pool where the strips run
+     * @param strips strips per image, at most
+     */
+    public TiledAdaptiveThreshold(ForkJoinPool pool, int strips) {
+        // Strips of at least a few blocks, or the halos cost more than they save
+        this(pool, strips, 4);
+    }
+
+    /**
+     * @param pool where the strips run
+     * @param strips strips per image, at most
+     * @param minStripBlocks block sizes of rows per strip, at least; 0 for
+     * strips of any height, down to one row
+     */
+    TiledAdaptiveThreshold(ForkJoinPool pool, int strips, int minStripBlocks) {
+        if (strips < 1 || minStripBlocks < 0) {
+            throw new IllegalArgumentException("Invalid strips: " + strips + ", " + minStripBlocks);
+        }
+        this.pool = pool;
+        this.strips = strips;
+        this.minStripBlocks = minStripBlocks;
+    }
+
+    /**
+     * Same as Imgproc.adaptiveThreshold.
+     *
+     * @param src a CV_8UC1 image
+     * @param dst the output, reallocated if needed; not src
+     */
+    public void apply(Mat src, Mat dst, double maxValue, int adaptiveMethod, int thresholdType, int blockSize, double c) {
+        int rows = src.rows();
+        int count = Math.max(1, Math.min(this.strips,
+                this.minStripBlocks == 0 ? rows : rows / (this.minStripBlocks * blockSize)));
+        if (count == 1) {
+            Imgproc.adaptiveThreshold(src, dst, maxValue, adaptiveMethod, thresholdType, blockSize, c);
+            return;
+        }
+        dst.create(src.rows(), src.cols(), CvType.CV_8UC1);
+        if (this.outputs.length < count) {
+            Mat[] outputs = new Mat[count];
+            System.arraycopy(this.outputs, 0, outputs, 0, this.outputs.length);
+            for (int i = this.outputs.length; i < count; i++) {
+                outputs[i] = new Mat();
+            }
+            this.outputs = outputs;
+        }
+        this.pool.invoke(new Strips(src, dst, count, 0, count, maxValue, adaptiveMethod, thresholdType, blockSize, c));
+    }
+
+    /**
+     * Releases the native memory of the strips.
+     */
+    public void release() {
+        for (Mat output : this.outputs) {
+            output.release();
+        }
+    }
+
+    // Strips from..to of count, halved until one is left
+    private class Strips extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Mat src, dst;
+        private final int count, from, to;
+        private final double maxValue;
+        private final int adaptiveMethod, thresholdType, blockSize;
+        private final double c;
+
+        Strips(Mat src, Mat dst, int count, int from, int to,
+                double maxValue, int adaptiveMethod, int thresholdType, int blockSize, double c) {
+            this.src = src;
+            this.dst = dst;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+            this.maxValue = maxValue;
+            this.adaptiveMethod = adaptiveMethod;
+            this.thresholdType = thresholdType;
+            this.blockSize = blockSize;
+            this.c = c;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(split(this.from, middle), split(middle, this.to));
+                return;
+            }
+            int rows = this.src.rows();
+            int y0 = (int) ((long) rows * this.from / this.count);
+            int y1 = (int) ((long) rows * (this.from + 1) / this.count);
+            int top = Math.max(0, y0 - this.blockSize);
+            int bottom = Math.min(rows, y1 + this.blockSize);
+
+            Mat input = this.src.rowRange(top, bottom);
+            Mat output = TiledAdaptiveThreshold.this.outputs[this.from];
+            Imgproc.adaptiveThreshold(input, output, this.maxValue, this.adaptiveMethod, this.thresholdType, this.blockSize, this.c);
+            // Keep the strip, drop the halo
+            Mat strip = output.rowRange(y0 - top, y1 - top);
+            Mat target = this.dst.rowRange(y0, y1);
+            strip.copyTo(target);
+            input.release();
+            strip.release();
+            target.release();
+        }
+
+        private Strips split(int from, int to) {
+            return new Strips(this.src, this.dst, this.count, from, to,
+                    this.maxValue, this.adaptiveMethod, this.thresholdType, this.blockSize, this.c);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.io.File;
+import java.io.IOException;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * A camera or a video file, read through OpenCV.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class VideoCaptureSource extends PacedFrameSource {
+
+    // Failed reads in a row before a camera is considered gone
+    private static final int MAX_CAMERA_FAILURES = 30;
+
+    private final VideoCapture capture;
+    private final String name;
+    private final boolean live;
+    private final double frameRate;
+
+    /**
+     * Opens a camera.
+     *
+     * @param device camera index
+     * @throws IOException if the camera cannot be opened
+     */
+    public VideoCaptureSource(int device) throws IOException {
+        this.capture = new VideoCapture(device);
+        if (!this.capture.isOpened()) {
+            throw new IOException("Cannot open camera: " + device);
+        }
+        this.name = "camera" + device;
+        this.live = true;
+        this.frameRate = this.capture.get(Videoio.CAP_PROP_FPS);
+    }
+
+    /**
+     * Opens a video file.
+     *
+     * @param path the file
+     * @throws IOException if the file cannot be opened
+     */
+    public VideoCaptureSource(String path) throws IOException {
+        this.capture = new VideoCapture(path);
+        if (!this.capture.isOpened()) {
+            throw new IOException("Cannot open video: " + path);
+        }
+        this.name = new File(path).getName();
+        this.live = false;
+        this.frameRate = this.capture.get(Videoio.CAP_PROP_FPS);
+    }
+
+    @Override
+    protected boolean readFrame(Mat frame) {
+        if (!this.live) {
+            return this.capture.read(frame) && !frame.empty();
+        }
+        // Cameras drop a frame now and then, e.g. while adjusting exposure
+        for (int i = 0; i < MAX_CAMERA_FAILURES && this.capture.isOpened(); i++) {
+            if (this.capture.read(frame) && !frame.empty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean isLive() {
+        return this.live;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public double getFrameRate() {
+        // Some backends report garbage for files without a rate
+        return this.frameRate > 0 && this.frameRate < 1000 ? this.frameRate : 0;
+    }
+
+    @Override
+    public void release() {
+        this.capture.release();
+    }
+}
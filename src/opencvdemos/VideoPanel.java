@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import javax.swing.JPanel;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A panel showing a video stream, fed from any thread.
+ *
+ * Frames are copied into a back buffer by the thread that calls
+ * {@link #show(Mat)}, then swapped with the front buffer the panel paints,
+ * and a repaint is requested. The Swing thread only draws the front buffer,
+ * so it never waits on the processing and never sees a half-copied frame.
+ *
+ * Thumbnails are resized once per frame, by OpenCV, into a buffer of the
+ * image size, rather than scaled on every paint.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class VideoPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    // One converter per buffer, each reusing its image
+    private final MatImageConverter[] converters = {new MatImageConverter(), new MatImageConverter()};
+    // Index of the converter holding the front buffer
+    private int front;
+    // The image painted, null to show nothing
+    private BufferedImage image;
+    private final Object lock = new Object();
+
+    // Size to show frames at, 0 for their own size
+    private int imageWidth, imageHeight;
+    // Frames resized to the image size, created on first use
+    private Mat scaled;
+
+    /**
+     * Shows the frames resized, e.g. as a thumbnail.
+     *
+     * @param width width of the image shown, 0 for the frame width
+     * @param height height of the image shown, 0 for the frame height
+     */
+    public void setImageSize(int width, int height) {
+        this.imageWidth = width;
+        this.imageHeight = height;
+    }
+
+    /**
+     * Shows a frame. Call from one thread at a time.
+     *
+     * @param frame a CV_8UC1 or CV_8UC3 (BGR) frame
+     */
+    public void show(Mat frame) {
+        Mat input = frame;
+        if (this.imageWidth > 0 && this.imageHeight > 0
+                && (frame.cols() != this.imageWidth || frame.rows() != this.imageHeight)) {
+            if (this.scaled == null) {
+                this.scaled = new Mat();
+            }
+            Imgproc.resize(frame, this.scaled, new Size(this.imageWidth, this.imageHeight), 0, 0, Imgproc.INTER_AREA);
+            input = this.scaled;
+        }
+
+        // Fill the back buffer, then swap
+        int back = 1 - this.front;
+        BufferedImage next = this.converters[back].convert(input);
+        synchronized (this.lock) {
+            this.image = next;
+            this.front = back;
+        }
+        repaint();
+    }
+
+    /**
+     * Shows nothing until the next frame.
+     */
+    public void clear() {
+        synchronized (this.lock) {
+            this.image = null;
+        }
+        repaint();
+    }
+
+    /**
+     * Releases the native buffer of the thumbnails.
+     */
+    public void release() {
+        if (this.scaled != null) {
+            this.scaled.release();
+            this.scaled = null;
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        // Hold the front buffer while drawing, so it is not refilled
+        synchronized (this.lock) {
+            if (this.image != null) {
+                g.drawImage(this.image, 0, 0, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives a CaptureManager with two synthetic sources, replayed as fast as
+ * they can be generated, and checks what reaches the processors.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class CaptureManagerTest {
+
+    private static final int FRAMES = 60;
+
+    /**
+     * Records the frames of one source and checks they never overlap.
+     */
+    private static class RecordingProcessor implements CaptureManager.Processor {
+        private final int sourceId;
+        private final long delayMillis;
+        private final List<Long> sequences = new ArrayList<>();
+        private final AtomicInteger active = new AtomicInteger();
+        // Checks that failed on the processing threads, where an assertion
+        // would only be logged
+        private final AtomicInteger violations = new AtomicInteger();
+
+        RecordingProcessor(int sourceId, long delayMillis) {
+            this.sourceId = sourceId;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void process(Frame frame, MatPool pool) {
+            if (this.active.incrementAndGet() != 1 || frame.getSource() != this.sourceId
+                    || frame.getMat().empty()) {
+                this.violations.incrementAndGet();
+            }
+            try {
+                Thread.sleep(this.delayMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this.sequences) {
+                this.sequences.add(frame.getSequence());
+            }
+            this.active.decrementAndGet();
+        }
+
+        List<Long> getSequences() {
+            synchronized (this.sequences) {
+                return new ArrayList<>(this.sequences);
+            }
+        }
+    }
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static SyntheticSource source(long frames, long seed) {
+        SyntheticSource source = new SyntheticSource(160, 120, frames, 3, seed);
+        source.setPacing(FrameSource.Pacing.AS_FAST_AS_POSSIBLE);
+        return source;
+    }
+
+    private static RecordingProcessor[] start(CaptureManager manager, long delayMillis, int threads) {
+        final RecordingProcessor[] processors = new RecordingProcessor[manager.getSources().size()];
+        manager.start(source -> {
+            processors[source.getId()] = new RecordingProcessor(source.getId(), delayMillis);
+            return processors[source.getId()];
+        }, threads);
+        return processors;
+    }
+
+    /**
+     * Without dropping, a slow processor holds the capture threads back and
+     * every frame of both sources is processed exactly once, in order, even
+     * with a single thread shared by the two.
+     */
+    @Test
+    public void testBatchModeProcessesEveryFrameOnce() throws InterruptedException {
+        CaptureManager manager = new CaptureManager("test", 2, false);
+        manager.addSource(source(FRAMES, 1));
+        manager.addSource(source(FRAMES, 2));
+        RecordingProcessor[] processors = start(manager, 2, 1);
+        manager.awaitCompletion();
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+
+        for (CaptureManager.Source source : manager.getSources()) {
+            RecordingProcessor processor = processors[source.getId()];
+            List<Long> expected = new ArrayList<>();
+            for (long i = 0; i < FRAMES; i++) {
+                expected.add(i);
+            }
+            assertEquals(expected, processor.getSequences());
+            assertEquals(0, processor.violations.get());
+            assertEquals(FRAMES, source.getCapturedFrames());
+            assertEquals(FRAMES, source.getProcessedFrames());
+            assertEquals(0, source.getDroppedFrames());
+        }
+    }
+
+    /**
+     * With dropping, every captured frame is either processed, once and in
+     * order, or counted as dropped.
+     */
+    @Test
+    public void testLiveModeAccountsForEveryFrame() throws InterruptedException {
+        CaptureManager manager = new CaptureManager("test", 1, true);
+        manager.addSource(source(FRAMES, 1));
+        manager.addSource(source(FRAMES, 2));
+        RecordingProcessor[] processors = start(manager, 5, 2);
+        manager.awaitCompletion();
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+
+        for (CaptureManager.Source source : manager.getSources()) {
+            RecordingProcessor processor = processors[source.getId()];
+            List<Long> sequences = processor.getSequences();
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(sequences.get(i) > sequences.get(i - 1));
+            }
+            assertEquals(0, processor.violations.get());
+            assertEquals(FRAMES, source.getCapturedFrames());
+            assertEquals(sequences.size(), source.getProcessedFrames());
+            assertEquals(FRAMES, source.getProcessedFrames() + source.getDroppedFrames());
+        }
+    }
+
+    /**
+     * Endless sources stop when the manager does, and nothing is processed
+     * afterwards.
+     */
+    @Test
+    public void testStopEndsEndlessSources() throws InterruptedException {
+        CaptureManager manager = new CaptureManager("test", 2, false);
+        manager.addSource(source(0, 1));
+        manager.addSource(source(0, 2));
+        RecordingProcessor[] processors = start(manager, 1, 2);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        for (CaptureManager.Source source : manager.getSources()) {
+            while (source.getProcessedFrames() < 10 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(source.getProcessedFrames() >= 10);
+        }
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+
+        for (CaptureManager.Source source : manager.getSources()) {
+            long processed = source.getProcessedFrames();
+            Thread.sleep(50);
+            assertEquals(processed, source.getProcessedFrames());
+            assertEquals(processed, processors[source.getId()].getSequences().size());
+            assertEquals(0, processors[source.getId()].violations.get());
+        }
+    }
+
+    /**
+     * A source that fails to read ends alone, with the error counted; the
+     * other source is processed to its end.
+     */
+    @Test
+    public void testFailingSourceEndsAlone() throws InterruptedException {
+        CaptureManager manager = new CaptureManager("test", 1, false);
+        final SyntheticSource failing = source(0, 1);
+        final AtomicInteger reads = new AtomicInteger();
+        manager.addSource("failing", frame -> {
+            if (reads.incrementAndGet() > 10) {
+                throw new CvException("bad read");
+            }
+            return failing.grab(frame);
+        });
+        manager.addSource(source(FRAMES, 2));
+        RecordingProcessor[] processors = start(manager, 1, 2);
+        manager.awaitCompletion();
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+        failing.release();
+
+        CaptureManager.Source failed = manager.getSources().get(0);
+        assertEquals(10, failed.getCapturedFrames());
+        assertEquals(10, failed.getProcessedFrames());
+        assertEquals(1, failed.getMetrics().getErrors());
+        CaptureManager.Source other = manager.getSources().get(1);
+        assertEquals(FRAMES, other.getProcessedFrames());
+        assertEquals(0, other.getMetrics().getErrors());
+        assertEquals(0, processors[0].violations.get() + processors[1].violations.get());
+    }
+
+    /**
+     * Stopping a manager that never started, e.g. because opening a later
+     * source failed, still releases the sources added so far, once.
+     */
+    @Test
+    public void testStopReleasesSourcesOfUnstartedManager() throws InterruptedException {
+        final AtomicInteger releases = new AtomicInteger();
+        CaptureManager manager = new CaptureManager("test", 2, false);
+        for (long seed = 1; seed <= 2; seed++) {
+            manager.addSource(new SyntheticSource(160, 120, FRAMES, 3, seed) {
+                @Override
+                public void release() {
+                    releases.incrementAndGet();
+                    super.release();
+                }
+            });
+        }
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+        assertEquals(2, releases.get());
+        assertTrue(manager.stop(5, TimeUnit.SECONDS));
+        assertEquals(2, releases.get());
+    }
+}
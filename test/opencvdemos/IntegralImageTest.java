@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the integral image filters against a brute-force mean of every
+ * kernel, pixel by pixel, and against the OpenCV calls they stand in for.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class IntegralImageTest {
+
+    private static final int[][] SIZES = {{160, 120}, {101, 67}, {33, 200}, {1, 1}};
+    private static final int[] KERNEL_SIZES = {1, 3, 7, 51};
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    // Mean of every kernel, edges replicated, rounded to the nearest level
+    private static int[] bruteForceMean(Mat src, int kernelSize) {
+        int rows = src.rows();
+        int cols = src.cols();
+        byte[] pixels = new byte[rows * cols];
+        src.get(0, 0, pixels);
+        int r = kernelSize / 2;
+        int area = kernelSize * kernelSize;
+        int[] mean = new int[rows * cols];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int sum = 0;
+                for (int ky = y - r; ky <= y + r; ky++) {
+                    int row = Math.max(0, Math.min(rows - 1, ky)) * cols;
+                    for (int kx = x - r; kx <= x + r; kx++) {
+                        sum += pixels[row + Math.max(0, Math.min(cols - 1, kx))] & 0xff;
+                    }
+                }
+                mean[y * cols + x] = (2 * sum + area) / (2 * area);
+            }
+        }
+        return mean;
+    }
+
+    private static byte[] bytes(Mat mat) {
+        byte[] bytes = new byte[(int) mat.total()];
+        mat.get(0, 0, bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testBoxBlurMatchesBruteForce() {
+        IntegralImage integral = new IntegralImage();
+        Mat actual = new Mat();
+        for (int[] size : SIZES) {
+            Mat src = TestImages.noisyGradient(size[0], size[1]);
+            for (int kernelSize : KERNEL_SIZES) {
+                int[] expected = bruteForceMean(src, kernelSize);
+                integral.compute(src, kernelSize);
+                integral.boxBlur(kernelSize, actual);
+                byte[] out = bytes(actual);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(size[0] + "x" + size[1] + ", kernel " + kernelSize + ", pixel " + i,
+                            expected[i], out[i] & 0xff);
+                }
+            }
+            src.release();
+        }
+        actual.release();
+    }
+
+    /**
+     * OpenCV 3.0, the version the project ships, rounds the 8 bit blur
+     * exactly, with edges replicated.
+     */
+    @Test
+    public void testBoxBlurMatchesBlur() {
+        IntegralImage integral = new IntegralImage();
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        for (int[] size : SIZES) {
+            Mat src = TestImages.noisyGradient(size[0], size[1]);
+            for (int kernelSize : KERNEL_SIZES) {
+                Imgproc.blur(src, expected, new Size(kernelSize, kernelSize), new Point(-1, -1), Core.BORDER_REPLICATE);
+                integral.compute(src, kernelSize);
+                integral.boxBlur(kernelSize, actual);
+                TestImages.assertSamePixels(expected, actual, size[0] + "x" + size[1] + ", kernel " + kernelSize);
+            }
+            src.release();
+        }
+        expected.release();
+        actual.release();
+    }
+
+    /**
+     * Against adaptiveThreshold, which averages each block as Imgproc.blur
+     * does.
+     */
+    @Test
+    public void testMeanThresholdMatchesAdaptiveThreshold() {
+        IntegralImage integral = new IntegralImage();
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        for (int[] size : SIZES) {
+            Mat src = TestImages.noisyGradient(size[0], size[1]);
+            // A table for a larger kernel serves the smaller ones too
+            integral.compute(src, 51);
+            for (int blockSize : new int[]{3, 7, 51}) {
+                for (double c : new double[]{7, 0, -2.5, 2.5}) {
+                    Imgproc.adaptiveThreshold(src, expected, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C,
+                            Imgproc.THRESH_BINARY, blockSize, c);
+                    integral.meanThreshold(255, blockSize, c, actual);
+                    TestImages.assertSamePixels(expected, actual, size[0] + "x" + size[1] + ", block " + blockSize + ", c " + c);
+                }
+            }
+            src.release();
+        }
+        expected.release();
+        actual.release();
+    }
+
+    /**
+     * Plain and blurred thresholds against brute-force means, compared as
+     * adaptiveThreshold does.
+     */
+    @Test
+    public void testMeanThresholdMatchesBruteForce() {
+        IntegralImage integral = new IntegralImage();
+        Mat actual = new Mat();
+        for (int[] size : SIZES) {
+            Mat src = TestImages.noisyGradient(size[0], size[1]);
+            int[] pixels = bruteForceMean(src, 1);
+            for (int blockSize : new int[]{7, 51}) {
+                int[] mean = bruteForceMean(src, blockSize);
+                integral.compute(src, blockSize);
+                for (int blurSize : new int[]{1, 3, 7}) {
+                    int[] blurred = blurSize == 1 ? pixels : bruteForceMean(src, blurSize);
+                    for (double c : new double[]{7, -2.5}) {
+                        int delta = (int) Math.ceil(c);
+                        integral.meanThreshold(255, blockSize, blurSize, c, actual);
+                        byte[] out = bytes(actual);
+                        for (int i = 0; i < mean.length; i++) {
+                            assertEquals(size[0] + "x" + size[1] + ", block " + blockSize + ", blur " + blurSize
+                                    + ", c " + c + ", pixel " + i,
+                                    blurred[i] - mean[i] > -delta ? 255 : 0, out[i] & 0xff);
+                        }
+                    }
+                }
+            }
+            src.release();
+        }
+        actual.release();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the LRU order, the byte budget and the counters of the QR code
+ * cache.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class QRCodeCacheTest {
+
+    private static final String CHARSET = "UTF-8";
+    private static final int SIZE = 200;
+    // Payloads of the same length encode to codes of the same size
+    private static final String A = "payload-a", B = "payload-b", C = "payload-c";
+
+    private static Map<EncodeHintType, Object> hints(ErrorCorrectionLevel level) {
+        Map<EncodeHintType, Object> hintMap = new EnumMap<>(EncodeHintType.class);
+        hintMap.put(EncodeHintType.ERROR_CORRECTION, level);
+        return hintMap;
+    }
+
+    private static BitMatrix get(QRCodeCache cache, String payload) throws WriterException, IOException {
+        return cache.getMatrix(payload, CHARSET, hints(ErrorCorrectionLevel.L), SIZE, SIZE);
+    }
+
+    private static long entrySize() throws WriterException, IOException {
+        QRCodeCache cache = new QRCodeCache(Long.MAX_VALUE);
+        get(cache, A);
+        return cache.getSizeBytes();
+    }
+
+    @Test
+    public void testHitsAndMisses() throws WriterException, IOException {
+        QRCodeCache cache = new QRCodeCache(Long.MAX_VALUE);
+        BitMatrix first = get(cache, A);
+        BitMatrix second = get(cache, A);
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEveryHintIsPartOfTheKey() throws WriterException, IOException {
+        QRCodeCache cache = new QRCodeCache(Long.MAX_VALUE);
+        Map<EncodeHintType, Object> hintMap = hints(ErrorCorrectionLevel.L);
+        BitMatrix plain = cache.getMatrix(A, CHARSET, hintMap, SIZE, SIZE);
+        hintMap.put(EncodeHintType.MARGIN, 0);
+        BitMatrix noMargin = cache.getMatrix(A, CHARSET, hintMap, SIZE, SIZE);
+        assertNotSame(plain, noMargin);
+        assertEquals(QRCode.encodeQRCode(A, CHARSET, hintMap, SIZE, SIZE), noMargin);
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        // Changing the map after the lookup must not change the cached key
+        hintMap.remove(EncodeHintType.MARGIN);
+        assertSame(plain, cache.getMatrix(A, CHARSET, hintMap, SIZE, SIZE));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws WriterException, IOException {
+        long entrySize = entrySize();
+        QRCodeCache cache = new QRCodeCache(2 * entrySize);
+        get(cache, A);
+        get(cache, B);
+        assertEquals(2 * entrySize, cache.getSizeBytes());
+        // A becomes the most recently used, so adding C evicts B
+        get(cache, A);
+        get(cache, C);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(2 * entrySize, cache.getSizeBytes());
+        get(cache, A);
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        get(cache, B);
+        assertEquals(2, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testPngIsAccountedFor() throws WriterException, IOException {
+        long entrySize = entrySize();
+        QRCodeCache cache = new QRCodeCache(Long.MAX_VALUE);
+        byte[] png = cache.getPng(A, CHARSET, hints(ErrorCorrectionLevel.L), SIZE, SIZE);
+        assertEquals((byte) 0x89, png[0]);
+        assertEquals('P', png[1]);
+        assertEquals(entrySize + png.length, cache.getSizeBytes());
+        assertSame(png, cache.getPng(A, CHARSET, hints(ErrorCorrectionLevel.L), SIZE, SIZE));
+        assertEquals(entrySize + png.length, cache.getSizeBytes());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testPngOverBudgetEvictsItsEntry() throws WriterException, IOException {
+        // Room for the matrix only
+        QRCodeCache cache = new QRCodeCache(entrySize());
+        byte[] png = cache.getPng(A, CHARSET, hints(ErrorCorrectionLevel.L), SIZE, SIZE);
+        assertNotNull(png);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+}
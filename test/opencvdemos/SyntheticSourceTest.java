@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import com.google.zxing.NotFoundException;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the QR code of the synthetic frames decodes, so the QR load
+ * tests built on them measure hits.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class SyntheticSourceTest {
+
+    private static final int FRAMES = 30;
+
+    @BeforeClass
+    public static void loadLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void testEveryFrameDecodes() throws NotFoundException {
+        for (int[] size : new int[][]{{640, 480}, {1920, 1080}, {64, 64}}) {
+            SyntheticSource source = new SyntheticSource(size[0], size[1], FRAMES);
+            Mat frame = new Mat();
+            int frames = 0;
+            while (source.read(frame)) {
+                Point p = RoundelCardboardDetection.readQRCode(frame);
+                assertNotNull(size[0] + "x" + size[1] + ", frame " + frames, p);
+                // Near the top, where the code drifts
+                assertTrue(size[0] + "x" + size[1] + ", frame " + frames, p.y < size[1] * 2 / 3);
+                frames++;
+            }
+            assertEquals(FRAMES, frames);
+            frame.release();
+            source.release();
+        }
+    }
+}
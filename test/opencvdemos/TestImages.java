@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Images and checks shared by the image filter tests.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Noise over a gradient with a few shapes, so every kernel sees edges,
+     * flat areas and image borders.
+     *
+     * @return a new CV_8UC1 image
+     */
+    static Mat noisyGradient(int width, int height) {
+        Mat image = new Mat(height, width, CvType.CV_8UC1);
+        Core.randu(image, 0, 64);
+        Mat gradient = new Mat(height, width, CvType.CV_8UC1);
+        byte[] row = new byte[width];
+        for (int x = 0; x < width; x++) {
+            row[x] = (byte) (x * 128 / width);
+        }
+        for (int y = 0; y < height; y++) {
+            gradient.put(y, 0, row);
+        }
+        Core.add(image, gradient, image);
+        Imgproc.circle(image, new Point(width / 3, height / 2), Math.min(width, height) / 4, new Scalar(230), -1);
+        Imgproc.rectangle(image, new Point(width / 2, height / 5), new Point(width - 4, height / 3), new Scalar(20), -1);
+        gradient.release();
+        return image;
+    }
+
+    /**
+     * Fails unless both Mats have the same size, type and pixels.
+     */
+    static void assertSamePixels(Mat expected, Mat actual, String what) {
+        assertEquals(what, expected.size(), actual.size());
+        assertEquals(what, expected.type(), actual.type());
+        Mat diff = new Mat();
+        Core.compare(expected, actual, diff, Core.CMP_NE);
+        assertEquals(what, 0, Core.countNonZero(diff));
+        diff.release();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 Mario Contreras - marioc@nazul.net.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package opencvdemos;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Checks the strip threshold against a single Imgproc.adaptiveThreshold
+ * call, pixel by pixel.
+ *
+ * @author Mario Contreras - marioc@nazul.net
+ */
+public class TiledAdaptiveThresholdTest {
+
+    private static final int[][] SIZES = {{640, 480}, {101, 67}, {33, 200}};
+    private static final int[] BLOCK_SIZES = {3, 11, 51};
+    private static final int[] STRIPS = {2, 3, 7, 64};
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUp() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        pool.shutdown();
+    }
+
+    private static void check(TiledAdaptiveThreshold tiled, String name) {
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        for (int[] size : SIZES) {
+            Mat src = TestImages.noisyGradient(size[0], size[1]);
+            for (int blockSize : BLOCK_SIZES) {
+                for (int method : new int[]{Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.ADAPTIVE_THRESH_GAUSSIAN_C}) {
+                    for (int type : new int[]{Imgproc.THRESH_BINARY, Imgproc.THRESH_BINARY_INV}) {
+                        double c = type == Imgproc.THRESH_BINARY ? 5 : -2.5;
+                        Imgproc.adaptiveThreshold(src, expected, 255, method, type, blockSize, c);
+                        tiled.apply(src, actual, 255, method, type, blockSize, c);
+                        TestImages.assertSamePixels(expected, actual, name + ", " + size[0] + "x" + size[1] + ", block " + blockSize
+                                + ", method " + method + ", type " + type);
+                    }
+                }
+            }
+            src.release();
+        }
+        expected.release();
+        actual.release();
+    }
+
+    /**
+     * With the default minimum strip height, as the detectors use it.
+     */
+    @Test
+    public void testDefaultStripsMatchSingleCall() {
+        for (int strips : STRIPS) {
+            TiledAdaptiveThreshold tiled = new TiledAdaptiveThreshold(pool, strips);
+            check(tiled, strips + " strips");
+            tiled.release();
+        }
+    }
+
+    /**
+     * Without a minimum strip height, so strips go down to a few rows, far
+     * smaller than a block, and the halos overlap several strips.
+     */
+    @Test
+    public void testStripsSmallerThanABlockMatchSingleCall() {
+        for (int strips : STRIPS) {
+            TiledAdaptiveThreshold tiled = new TiledAdaptiveThreshold(pool, strips, 0);
+            check(tiled, strips + " strips of any height");
+            tiled.release();
+        }
+        // One row per strip
+        TiledAdaptiveThreshold tiled = new TiledAdaptiveThreshold(pool, 1000, 0);
+        check(tiled, "strips of one row");
+        tiled.release();
+    }
+}